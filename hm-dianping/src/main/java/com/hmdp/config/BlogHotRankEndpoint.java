@@ -0,0 +1,24 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.BlogHotRank;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+// 手动重建热门博客排行：POST /actuator/hotrank，只在不对外开放的监控端口上提供
+// 重建需要全表扫描tb_blog，不能暴露给普通用户
+@Component
+@Endpoint(id = "hotrank")
+public class BlogHotRankEndpoint {
+    @Resource
+    private BlogHotRank blogHotRank;
+
+    // 在后台重建，本实例已有重建任务时忽略
+    @WriteOperation
+    public String rebuild() {
+        blogHotRank.rebuildAsync();
+        return "rebuilding";
+    }
+}
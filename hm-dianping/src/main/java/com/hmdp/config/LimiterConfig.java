@@ -0,0 +1,35 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.AdaptiveLimiter;
+import com.hmdp.utils.MysqlLimitInterceptor;
+import com.hmdp.utils.RedisLimitPostProcessor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// 各下游的自适应并发限制，初始值与下限、上限按连接池大小设置，运行中根据响应时间调整
+@Configuration
+public class LimiterConfig {
+    @Bean
+    public AdaptiveLimiter redisLimiter() {
+        return new AdaptiveLimiter("redis", 50, 10, 500);
+    }
+
+    @Bean
+    public AdaptiveLimiter mysqlLimiter() {
+        return new AdaptiveLimiter("mysql", 20, 5, 200);
+    }
+
+    @Bean
+    public MysqlLimitInterceptor mysqlLimitInterceptor() {
+        return new MysqlLimitInterceptor(mysqlLimiter());
+    }
+
+    // BeanPostProcessor需要在其他bean之前创建，使用静态方法并延迟获取限制器
+    @Bean
+    public static RedisLimitPostProcessor redisLimitPostProcessor(
+            @Qualifier("redisLimiter") ObjectProvider<AdaptiveLimiter> redisLimiter) {
+        return new RedisLimitPostProcessor(redisLimiter);
+    }
+}
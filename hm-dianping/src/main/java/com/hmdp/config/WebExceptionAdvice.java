@@ -1,6 +1,9 @@
 package com.hmdp.config;
 
+import cn.hutool.core.exceptions.ExceptionUtil;
 import com.hmdp.dto.Result;
+import com.hmdp.utils.OverloadException;
+import com.hmdp.utils.RateLimitException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
@@ -9,8 +12,17 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 @RestControllerAdvice
 public class WebExceptionAdvice {
 
+    @ExceptionHandler(RateLimitException.class)
+    public Result handleRateLimitException(RateLimitException e) {
+        return Result.fail(e.getMessage());
+    }
+
     @ExceptionHandler(RuntimeException.class)
     public Result handleRuntimeException(RuntimeException e) {
+        // 下游过载时快速失败，异常可能被mybatis、spring包装过
+        if (ExceptionUtil.isCausedBy(e, OverloadException.class)) {
+            return Result.fail("系统繁忙，请稍后再试");
+        }
         log.error(e.toString(), e);
         return Result.fail("服务器异常");
     }
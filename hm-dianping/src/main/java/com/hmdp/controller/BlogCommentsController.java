@@ -1,9 +1,12 @@
 package com.hmdp.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.BlogComments;
+import com.hmdp.service.IBlogCommentsService;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -16,5 +19,40 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 @RequestMapping("/blog-comments")
 public class BlogCommentsController {
+    @Resource
+    private IBlogCommentsService blogCommentsService;
 
+    /**
+     * 发表评论
+     * @param comment 评论内容，回复其他评论时需指定parentId(一级评论id)和answerId(被回复的评论id)
+     * @return 评论id
+     */
+    @PostMapping
+    public Result saveComment(@RequestBody BlogComments comment) {
+        return blogCommentsService.saveComment(comment);
+    }
+
+    /**
+     * 分页查询博客的一级评论
+     * @param blogId 博客id
+     * @param cursor 分页游标，为空时查询第一页
+     * @return 评论列表及下一页游标
+     */
+    @GetMapping("/of/blog/{blogId}")
+    public Result queryBlogComments(@PathVariable("blogId") Long blogId,
+                                    @RequestParam(value = "cursor", required = false) String cursor) {
+        return blogCommentsService.queryBlogComments(blogId, cursor);
+    }
+
+    /**
+     * 分页查询一级评论下的回复，展开评论时按需加载
+     * @param parentId 一级评论id
+     * @param cursor 分页游标，为空时查询第一页
+     * @return 回复列表及下一页游标
+     */
+    @GetMapping("/replies/{parentId}")
+    public Result queryCommentReplies(@PathVariable("parentId") Long parentId,
+                                      @RequestParam(value = "cursor", required = false) String cursor) {
+        return blogCommentsService.queryCommentReplies(parentId, cursor);
+    }
 }
@@ -8,13 +8,18 @@ import com.hmdp.entity.Blog;
 import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.KeysetPager;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UvCounter;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import java.util.List;
 
+import static com.hmdp.utils.RedisConstants.UV_BLOG_KEY;
+
 /**
  * <p>
  * 前端控制器
@@ -28,6 +33,8 @@ import java.util.List;
 public class BlogController {
     @Resource
     private IBlogService blogService;
+    @Resource
+    private UvCounter uvCounter;
 
     // 发布一篇博客的同时，将blogId推送至粉丝的收件箱
     @PostMapping
@@ -43,24 +50,36 @@ public class BlogController {
     }
 
     @GetMapping("/of/me")
-    public Result queryMyBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
+    public Result queryMyBlog(@RequestParam(value = "current", defaultValue = "1") Integer current,
+                              @RequestParam(value = "cursor", required = false) String cursor) {
         // 获取登录用户
         UserDTO user = UserHolder.getUser();
+        if (cursor != null) {
+            // 按游标分页，最新的在前
+            return Result.ok(KeysetPager.page(blogService.query().eq("user_id", user.getId()),
+                    Blog::getId, true, cursor, SystemConstants.MAX_PAGE_SIZE));
+        }
         // 根据用户查询
         Page<Blog> page = blogService.query()
-                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
+                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+        // 获取当前页数据，分页查询不执行COUNT
         List<Blog> records = page.getRecords();
         return Result.ok(records);
     }
 
     @GetMapping("/hot")
-    public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
+    public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current,
+                               @RequestParam(value = "cursor", required = false) String cursor) {
+        if (cursor != null) {
+            return blogService.queryHotBlog(cursor);
+        }
         return blogService.queryHotBlog(current);
     }
 
     @GetMapping("/{id}")
-    public Result queryBlogById(@PathVariable Long id) {
+    public Result queryBlogById(@PathVariable Long id, HttpServletRequest request) {
+        // 记录UV
+        uvCounter.record(UV_BLOG_KEY, id, UvCounter.visitorOf(request));
         return blogService.queryBlogById(id);
     }
 
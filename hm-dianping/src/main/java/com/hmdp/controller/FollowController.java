@@ -6,6 +6,7 @@ import com.hmdp.service.IFollowService;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * <p>
@@ -26,13 +27,37 @@ public class FollowController {
         return followService.follow(followUserId,isFollow);
     }
 
-    @PutMapping("/or/not/{id{")
+    @GetMapping("/or/not/{id}")
     public Result follow(@PathVariable("id") Long followUserId) {
         return followService.isFollow(followUserId);
     }
 
+    // 批量查询关注状态，例如列表页的关注按钮
+    @GetMapping("/or/not/batch")
+    public Result isFollowBatch(@RequestParam("ids") List<Long> ids) {
+        return followService.isFollowBatch(ids);
+    }
+
+    // 查询关注数和粉丝数
+    @GetMapping("/count/{id}")
+    public Result queryFollowCount(@PathVariable("id") Long id) {
+        return followService.queryFollowCount(id);
+    }
+
     @GetMapping("/common/{id}")
     public Result followCommons(@PathVariable("id") Long id){
         return followService.followCommons(id);
     }
+
+    // 共同关注数量
+    @GetMapping("/common/{id}/count")
+    public Result followCommonCount(@PathVariable("id") Long id) {
+        return followService.followCommonCount(id);
+    }
+
+    // 可能认识的人
+    @GetMapping("/recommend")
+    public Result recommend(@RequestParam(value = "size", defaultValue = "10") Integer size) {
+        return followService.recommend(size);
+    }
 }
@@ -0,0 +1,163 @@
+package com.hmdp.controller;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.utils.ImageStore;
+import com.hmdp.utils.ImageThumbnailer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 图片访问：文件名即内容哈希，内容不会变化，因此以哈希作为ETag并允许客户端永久缓存
+ * 支持Tomcat sendfile时由Tomcat零拷贝发送，否则通过FileChannel.transferTo发送，文件不会读入堆内存
+ */
+@RestController
+public class ImageController {
+    private static final String PREFIX = "/imgs";
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+    private static final String FALLBACK_CACHE_CONTROL = "public, max-age=60";
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+
+    @Resource
+    private ImageStore imageStore;
+
+    @Resource
+    private ImageThumbnailer imageThumbnailer;
+
+    @GetMapping(PREFIX + "/**")
+    public void image(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // 1.校验文件名，缩略图不存在时回退为原图并重新生成
+        String name = request.getRequestURI().substring(request.getContextPath().length() + PREFIX.length());
+        // 返回的是原图时只短暂缓存，缩略图生成后客户端能重新获取
+        boolean fallback = false;
+        if (imageStore.isValidVariantName(name) && !Files.exists(imageStore.resolve(name))) {
+            String original = imageStore.findOriginal(name);
+            if (original != null) {
+                imageThumbnailer.submit(original);
+                name = original;
+                fallback = true;
+            }
+        } else if (!imageStore.isValidName(name) && !imageStore.isValidVariantName(name)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Path file = imageStore.resolve(name);
+        if (!Files.isRegularFile(file)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        // 2.协商缓存
+        String etag = "\"" + StrUtil.subAfter(name, "/", true) + "\"";
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, fallback ? FALLBACK_CACHE_CONTROL : CACHE_CONTROL);
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || "*".equals(ifNoneMatch.trim()))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        // 3.解析Range
+        long length = Files.size(file);
+        long start = 0;
+        long end = length - 1;
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null) {
+            long[] bounds = parseRange(range, length);
+            if (bounds == null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        long count = end - start + 1;
+        response.setContentType(contentType(name));
+        response.setContentLengthLong(count);
+        // 4.发送文件
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute("org.apache.tomcat.sendfile.filename", file.toAbsolutePath().toString());
+            request.setAttribute("org.apache.tomcat.sendfile.start", start);
+            request.setAttribute("org.apache.tomcat.sendfile.end", end + 1);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position <= end) {
+                long sent = channel.transferTo(position, end + 1 - position, out);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+            }
+        }
+    }
+
+    /**
+     * 解析单个Range，例如 bytes=0-99、bytes=100-、bytes=-100
+     * @return {start, end}；无法满足时返回null；格式不支持(如多个区间)时返回空数组，发送整个文件
+     */
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int index = spec.indexOf('-');
+        if (index < 0) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, index).trim();
+            String last = spec.substring(index + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // 最后N个字节
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(length - suffix, 0);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start >= length || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static String contentType(String name) {
+        switch (StrUtil.subAfter(name, ".", true)) {
+            case "png":
+                return "image/png";
+            case "gif":
+                return "image/gif";
+            case "webp":
+                return "image/webp";
+            default:
+                return "image/jpeg";
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
@@ -9,12 +8,16 @@ import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UserProfileCache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import java.util.List;
 
 /**
  * <p>
@@ -35,6 +38,9 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private UserProfileCache userProfileCache;
+
     /**
      * 发送手机验证码
      */
@@ -61,9 +67,9 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout() {
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(HttpServletRequest request) {
+        // 使当前token失效
+        return userService.logout(request.getHeader("authorization"));
     }
 
     @GetMapping("/me")
@@ -76,26 +82,48 @@ public class UserController {
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId) {
         // 查询详情
-        UserInfo info = userInfoService.getById(userId);
+        UserInfo info = userProfileCache.getUserInfo(userId);
         if (info == null) {
             // 没有详情，应该是第一次查看详情
             return Result.ok();
         }
-        info.setCreateTime(null);
-        info.setUpdateTime(null);
         // 返回
         return Result.ok(info);
     }
 
+    @PutMapping("/me")
+    public Result updateMe(@RequestBody User user, HttpServletRequest request) {
+        // 修改昵称、头像，并更新当前会话中的资料
+        return userService.updateMe(user, request.getHeader("authorization"));
+    }
+
+    @PutMapping("/info")
+    public Result updateMyInfo(@RequestBody UserInfo userInfo) {
+        // 修改个人详情
+        return userInfoService.updateMyInfo(userInfo);
+    }
+
     @GetMapping("/{id}")
     public Result queryUserById(@PathVariable("id") Long userId) {
         // 查询详情
-        User user = userService.getById(userId);
-        if (user == null) {
+        UserDTO userDTO = userProfileCache.getUser(userId);
+        if (userDTO == null) {
             return Result.ok();
         }
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
         // 返回
         return Result.ok(userDTO);
     }
-}
\ No newline at end of file
+
+    /**
+     * 批量查询用户
+     * @param ids 用户id，多个以','隔开
+     * @return 按ids顺序排列的用户列表，不存在的用户被跳过
+     */
+    @GetMapping("/batch")
+    public Result queryUserByIds(@RequestParam("ids") List<Long> ids) {
+        if (ids.size() > SystemConstants.MAX_BATCH_SIZE) {
+            return Result.fail("一次最多查询" + SystemConstants.MAX_BATCH_SIZE + "个用户");
+        }
+        return Result.ok(userProfileCache.getUsers(ids));
+    }
+}
@@ -0,0 +1,65 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.UvCounter;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * <p>
+ * UV统计控制器
+ * </p>
+ */
+@RestController
+@RequestMapping("/uv")
+public class UvController {
+    @Resource
+    private UvCounter uvCounter;
+
+    /**
+     * 查询商铺UV
+     * @param id 商铺id
+     * @param range 统计区间，day：今天，week：最近7天，month：最近30天
+     * @return UV数量
+     */
+    @GetMapping("/shop/{id}")
+    public Result queryShopUv(@PathVariable("id") Long id,
+                              @RequestParam(value = "range", defaultValue = "day") String range) {
+        return queryUv(UV_SHOP_KEY, id, range);
+    }
+
+    /**
+     * 查询博客UV
+     * @param id 博客id
+     * @param range 统计区间，day：今天，week：最近7天，month：最近30天
+     * @return UV数量
+     */
+    @GetMapping("/blog/{id}")
+    public Result queryBlogUv(@PathVariable("id") Long id,
+                              @RequestParam(value = "range", defaultValue = "day") String range) {
+        return queryUv(UV_BLOG_KEY, id, range);
+    }
+
+    private Result queryUv(String keyPrefix, Long id, String range) {
+        LocalDate today = LocalDate.now();
+        LocalDate begin;
+        switch (range) {
+            case "day":
+                begin = today;
+                break;
+            case "week":
+                begin = today.minusDays(6);
+                break;
+            case "month":
+                begin = today.minusDays(29);
+                break;
+            default:
+                return Result.fail("不支持的统计区间");
+        }
+        return Result.ok(uvCounter.count(keyPrefix, id, begin, today));
+    }
+}
@@ -7,6 +7,7 @@ import com.hmdp.service.IVoucherService;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
 
 /**
  * <p>
@@ -41,6 +42,10 @@ public class VoucherController {
      */
     @PostMapping("seckill")
     public Result addSeckillVoucher(@RequestBody Voucher voucher) {
+        // 结束时间已过的秒杀，库存key会立即过期
+        if (voucher.getEndTime() == null || !voucher.getEndTime().isAfter(LocalDateTime.now())) {
+            return Result.fail("秒杀结束时间必须晚于当前时间");
+        }
         voucherService.addSeckillVoucher(voucher);
         return Result.ok(voucher.getId());
     }
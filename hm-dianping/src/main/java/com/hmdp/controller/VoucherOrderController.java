@@ -1,14 +1,30 @@
 package com.hmdp.controller;
 
 
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.OverloadException;
+import com.hmdp.utils.RateLimit;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.utils.SystemConstants.*;
 
 /**
  * <p>
@@ -18,14 +34,60 @@ import javax.annotation.Resource;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @RestController
 @RequestMapping("/voucher-order")
 public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    // 秒杀请求在独立的线程池中执行，释放tomcat线程，避免抢购流量占满tomcat线程影响其他接口
+    // 队列满时直接拒绝，不再排队
+    private final ThreadPoolExecutor seckillExecutor = new ThreadPoolExecutor(
+            SECKILL_HANDLER_THREADS, SECKILL_HANDLER_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(SECKILL_QUEUE_CAPACITY), new NamedThreadFactory("seckill-", false),
+            new ThreadPoolExecutor.AbortPolicy());
+
+    @PreDestroy
+    private void destroy() {
+        seckillExecutor.shutdown();
+    }
+
+    // 每个用户每秒1次、最多连续3次，本实例每张券每秒2000次，集群每张券每秒5000次
+    @RateLimit(key = "seckill", param = "voucherId", permitsPerSecond = 2000,
+            userPermitsPerSecond = 1, userBurst = 3, clusterPermitsPerSecond = 5000)
     @PostMapping("seckill/{id}")
-    public Result seckillVoucher(@PathVariable("id") Long voucherId) {
-        return voucherOrderService.seckillVoucher(voucherId);
+    public DeferredResult<Result> seckillVoucher(@PathVariable("id") Long voucherId) {
+        DeferredResult<Result> deferredResult = new DeferredResult<>(SECKILL_TIMEOUT);
+        // 请求只能由执行线程或超时中的一方领取：排队期间超时的请求不再执行，可以提示重试；
+        // 已开始执行的请求可能已经扣减库存，超时时只能提示查询订单，重试会被判定为重复下单
+        AtomicBoolean claimed = new AtomicBoolean(false);
+        deferredResult.onTimeout(() -> deferredResult.setResult(claimed.compareAndSet(false, true)
+                ? Result.fail("系统繁忙，请重试") : Result.fail("处理中，请稍后查询订单")));
+        // 用户信息保存在tomcat线程的ThreadLocal中，需要传递给执行线程
+        UserDTO user = UserHolder.getUser();
+        try {
+            seckillExecutor.execute(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return;
+                }
+                UserHolder.saveUser(user);
+                try {
+                    deferredResult.setResult(voucherOrderService.seckillVoucher(voucherId));
+                } catch (Exception e) {
+                    if (ExceptionUtil.isCausedBy(e, OverloadException.class)) {
+                        deferredResult.setResult(Result.fail("系统繁忙，请重试"));
+                        return;
+                    }
+                    log.error("秒杀下单异常", e);
+                    deferredResult.setResult(Result.fail("服务器异常"));
+                } finally {
+                    UserHolder.removeUser();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            deferredResult.setResult(Result.fail("系统繁忙，请重试"));
+        }
+        return deferredResult;
     }
 }
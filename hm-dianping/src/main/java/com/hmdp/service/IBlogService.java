@@ -18,6 +18,8 @@ public interface IBlogService extends IService<Blog> {
 
     Result queryHotBlog(Integer current);
 
+    Result queryHotBlog(String cursor);
+
     Result likeBlog(Long id);
 
     Result queryBlogLikes(Long id);
@@ -2,6 +2,8 @@ package com.hmdp.service;
 
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Follow;
+
+import java.util.List;
 import com.baomidou.mybatisplus.extension.service.IService;
 
 /**
@@ -18,5 +20,22 @@ public interface IFollowService extends IService<Follow> {
 
     Result isFollow(Long followUserId);
 
+    Result isFollowBatch(List<Long> followUserIds);
+
+    Result queryFollowCount(Long id);
+
     Result followCommons(Long id);
+
+    Result followCommonCount(Long id);
+
+    Result recommend(Integer size);
+
+    // 确保follow:<userId>集合已从数据库加载
+    void ensureFollowsLoaded(Long userId);
+
+    // 确保fans:<userId>集合已从数据库加载
+    void ensureFansLoaded(Long userId);
+
+    // 粉丝数量，不含占位成员
+    long countFans(Long userId);
 }
@@ -1,11 +1,36 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
+import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogHotRank;
+import com.hmdp.utils.KeysetPager;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.WriteBehindCounter;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.BLOG_HOT_COMMENT_WEIGHT;
+import static com.hmdp.utils.SystemConstants.MAX_PAGE_SIZE;
+
 /**
  * <p>
  *  服务实现类
@@ -16,5 +41,114 @@ import org.springframework.stereotype.Service;
  */
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IUserService userService;
+    @Resource
+    private BlogMapper blogMapper;
+    @Resource
+    private WriteBehindCounter writeBehindCounter;
+    @Resource
+    private BlogHotRank blogHotRank;
+
+    @Override
+    public Result saveComment(BlogComments comment) {
+        if (StrUtil.isBlank(comment.getContent()))
+            return Result.fail("评论内容不能为空");
+        Long blogId = comment.getBlogId();
+        // 1.回复评论时，校验一级评论是否属于该博客；否则校验博客是否存在
+        if (comment.getParentId() != null && comment.getParentId() > 0) {
+            BlogComments parent = getById(comment.getParentId());
+            if (parent == null || !parent.getBlogId().equals(blogId) || parent.getParentId() != 0)
+                return Result.fail("评论不存在");
+            // 回复的是楼中楼时，被回复的评论必须存在且在同一个一级评论下
+            Long answerId = comment.getAnswerId();
+            if (answerId == null || answerId == 0 || answerId.equals(parent.getId())) {
+                comment.setAnswerId(parent.getId());
+            } else {
+                BlogComments answer = getById(answerId);
+                if (answer == null || !blogId.equals(answer.getBlogId()) || !parent.getId().equals(answer.getParentId()))
+                    return Result.fail("评论不存在");
+            }
+        } else {
+            if (blogId == null || blogMapper.selectById(blogId) == null)
+                return Result.fail("笔记不存在");
+            comment.setParentId(0L);
+            comment.setAnswerId(0L);
+        }
+        // 2.保存评论
+        comment.setId(null);
+        comment.setUserId(UserHolder.getUser().getId());
+        comment.setLiked(0);
+        comment.setStatus(false);
+        if (!save(comment))
+            return Result.fail("评论失败");
+        // 3.一级评论变化时删除首页缓存
+        if (comment.getParentId() == 0)
+            stringRedisTemplate.delete(CACHE_BLOG_COMMENTS_KEY + blogId);
+        // 4.评论数增量由定时任务批量写回数据库，同时更新博客热度
+        writeBehindCounter.incr(BLOG_COMMENTS_DELTA_KEY, blogId, 1);
+        blogHotRank.incr(blogId, BLOG_HOT_COMMENT_WEIGHT);
+        return Result.ok(comment.getId());
+    }
+
+    @Override
+    public Result queryBlogComments(Long blogId, String cursor) {
+        String key = CACHE_BLOG_COMMENTS_KEY + blogId;
+        boolean firstPage = StrUtil.isBlank(cursor);
+        // 1.第一页优先查询缓存
+        if (firstPage) {
+            String json = stringRedisTemplate.opsForValue().get(key);
+            if (StrUtil.isNotBlank(json)) {
+                JSONObject cache = JSONUtil.parseObj(json);
+                return Result.ok(new CursorResult(
+                        cache.getJSONArray("list").toList(BlogComments.class), cache.getStr("cursor")));
+            }
+        }
+        // 2.按id倒序游标分页查询一级评论，回复在展开时再加载
+        CursorResult result = KeysetPager.page(visible(query().eq("blog_id", blogId).eq("parent_id", 0)),
+                BlogComments::getId, true, cursor, MAX_PAGE_SIZE);
+        hydrateComments((List<BlogComments>) result.getList());
+        // 3.写入第一页缓存
+        if (firstPage)
+            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(result),
+                    CACHE_BLOG_COMMENTS_TTL, TimeUnit.MINUTES);
+        return Result.ok(result);
+    }
+
+    @Override
+    public Result queryCommentReplies(Long parentId, String cursor) {
+        // 回复按时间正序展示
+        CursorResult result = KeysetPager.page(visible(query().eq("parent_id", parentId)),
+                BlogComments::getId, false, cursor, MAX_PAGE_SIZE);
+        hydrateComments((List<BlogComments>) result.getList());
+        return Result.ok(result);
+    }
+
+    // 定时将评论数增量批量写回tb_blog.comments
+    @Scheduled(fixedDelay = 5000)
+    public void flushCommentCount() {
+        writeBehindCounter.drain(BLOG_COMMENTS_DELTA_KEY, deltas -> blogMapper.incrCounters("comments", deltas));
+    }
+
+    // 只查询状态正常的评论
+    private QueryChainWrapper<BlogComments> visible(QueryChainWrapper<BlogComments> query) {
+        return query.and(w -> w.isNull("status").or().eq("status", 0));
+    }
 
+    // 批量填充评论用户信息
+    private void hydrateComments(List<BlogComments> comments) {
+        if (comments.isEmpty())
+            return;
+        Map<Long, UserDTO> users = userService.queryUserDTOMap(
+                comments.stream().map(BlogComments::getUserId).collect(Collectors.toSet()));
+        for (BlogComments comment : comments) {
+            UserDTO user = users.get(comment.getUserId());
+            if (user != null) {
+                comment.setName(user.getNickName());
+                comment.setIcon(user.getIcon());
+            }
+        }
+    }
 }
@@ -1,35 +1,52 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogHotRank;
+import com.hmdp.utils.FeedDispatcher;
+import com.hmdp.utils.KeysetPager;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UserProfileCache;
+import com.hmdp.utils.WriteBehindCounter;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
-import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.*;
 
 /**
  * <p>
@@ -47,71 +64,133 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private IFollowService followService;
+    @Resource
+    private UserProfileCache userProfileCache;
+    @Resource
+    private FeedDispatcher feedDispatcher;
+    @Resource
+    private WriteBehindCounter writeBehindCounter;
+    @Resource
+    private BlogHotRank blogHotRank;
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
 
     @Override
     public Result queryBlogById(Long id) {
         Blog blog = getById(id);
         if (blog == null)
             return Result.fail("笔记不存在");
-        // 查询当前笔记用户信息
-        queryBlogUser(blog);
-        // 查询是否已经被点赞
-        isBlogLiked(blog);
+        // 查询当前笔记用户信息以及是否已经被点赞
+        hydrateBlogs(Collections.singletonList(blog));
         return Result.ok(blog);
     }
 
-    private void isBlogLiked(Blog blog) {
-        // 获取登录用户，判断当前用户是否已经点赞
+    // 批量填充博客的作者信息和点赞状态，整页只需一次用户批量查询和一次pipeline
+    private void hydrateBlogs(List<Blog> blogs) {
+        if (blogs.isEmpty())
+            return;
+        // 1.批量查询作者信息
+        Map<Long, UserDTO> users = userService.queryUserDTOMap(
+                blogs.stream().map(Blog::getUserId).collect(Collectors.toSet()));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+        // 2.获取登录用户，pipeline批量判断当前用户是否已经点赞
         UserDTO user = UserHolder.getUser();
         if (user == null)
             return;
-        Long userId = UserHolder.getUser().getId();
-        String key = BLOG_LIKED_KEY + blog.getId();
-        Double score = stringRedisTemplate
-                .opsForZSet()
-                .score(key, userId.toString());
-        blog.setIsLike(score != null);
+        String userId = user.getId().toString();
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                conn.zScore(BLOG_LIKED_KEY + blog.getId(), userId);
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
     }
 
     @Override
     public Result queryHotBlog(Integer current) {
-        // 根据用户查询
-        Page<Blog> page = query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-                    this.queryBlogUser(blog);
-                    this.isBlogLiked(blog);
-                }
-        );
+        // 从热门排行中查询当前页的博客id
+        List<Long> ids = blogHotRank.queryIds((long) (current - 1) * SystemConstants.MAX_PAGE_SIZE,
+                SystemConstants.MAX_PAGE_SIZE);
+        List<Blog> records;
+        if (ids == null) {
+            // 排行榜正在重建，降级为数据库查询
+            records = query()
+                    .orderByDesc("liked")
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false)).getRecords();
+        } else {
+            records = listByIdsInOrder(ids);
+        }
+        // 批量查询用户及点赞状态
+        hydrateBlogs(records);
         return Result.ok(records);
     }
 
     @Override
-    public Result likeBlog(Long id) {
-        // 获取登录用户，判断当前用户是否已经点赞
-        Long userId = UserHolder.getUser().getId();
-        String key = BLOG_LIKED_KEY + id;
-        Double score = stringRedisTemplate
-                .opsForZSet()
-                .score(key, userId.toString());
-        if (score == null) {
-            // 若未点赞，则点赞，数据库赞数+1，将当前用户存到Redis集合
-            boolean isSuccess = update().setSql("liked = liked + 1").eq("id", id).update();
-            if (isSuccess)
-                stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
+    public Result queryHotBlog(String cursor) {
+        // 游标为热门排行中的下一个位置，ZREVRANGE按排名取数的代价与页码无关
+        String[] parts = KeysetPager.decode(cursor);
+        boolean fromDb = parts != null && parts.length > 1;
+        long start = parts == null || fromDb ? 0 : Long.parseLong(parts[0]);
+        // 两段的游标(liked, id)来自数据库降级分页，继续按数据库分页
+        List<Long> ids = fromDb ? null : blogHotRank.queryIds(start, SystemConstants.MAX_PAGE_SIZE);
+        CursorResult result;
+        if (ids == null) {
+            // 排行榜正在重建，降级为数据库按(liked, id)游标分页
+            result = KeysetPager.page(query(), "liked", Blog::getLiked, Blog::getId, true,
+                    fromDb ? cursor : null, SystemConstants.MAX_PAGE_SIZE);
         } else {
-            // 若已点赞，则取消赞，数据库赞数-1，将当前用户从Redis集合移除
-            boolean isSuccess = update().setSql("liked = liked - 1").eq("id", id).update();
-            if (isSuccess)
-                stringRedisTemplate.opsForZSet().remove(key, userId.toString());
+            List<Blog> records = listByIdsInOrder(ids);
+            String next = ids.size() < SystemConstants.MAX_PAGE_SIZE ? null : KeysetPager.encode(start + ids.size());
+            result = new CursorResult(records, next);
         }
+        // 批量查询用户及点赞状态
+        hydrateBlogs((List<Blog>) result.getList());
+        return Result.ok(result);
+    }
+
+    // 按id批量查询博客，并保持id的顺序
+    private List<Blog> listByIdsInOrder(List<Long> ids) {
+        if (ids.isEmpty())
+            return new ArrayList<>();
+        Map<Long, Blog> blogMap = listByIds(ids).stream()
+                .collect(Collectors.toMap(Blog::getId, blog -> blog));
+        return ids.stream().map(blogMap::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    @Override
+    public Result likeBlog(Long id) {
+        // 博客不存在时不执行脚本，避免为任意id创建点赞集合、增量和排行数据
+        if (!blogHotRank.contains(id) && getById(id) == null)
+            return Result.fail("笔记不存在");
+        // 一次脚本调用完成点赞/取消点赞，点赞数增量由定时任务批量写回数据库
+        Long userId = UserHolder.getUser().getId();
+        stringRedisTemplate.execute(LIKE_SCRIPT, Collections.emptyList(),
+                id.toString(), userId.toString(), String.valueOf(System.currentTimeMillis()),
+                String.valueOf(BLOG_HOT_LIKE_WEIGHT));
         return Result.ok();
     }
 
+    // 定时将点赞数增量批量写回tb_blog.liked
+    @Scheduled(fixedDelay = 5000)
+    public void flushLikedCount() {
+        writeBehindCounter.drain(BLOG_LIKED_DELTA_KEY, deltas -> getBaseMapper().incrCounters("liked", deltas));
+    }
+
     @Override
     public Result queryBlogLikes(Long id) {
         // 查询top5的点赞用户
@@ -120,13 +199,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (top5 == null || top5.isEmpty())
             return Result.ok(Collections.emptyList());
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);
-        List<User> users = userService
-                .query().in("id", ids)
-                .last("ORDER BY FIELD(id," + idStr + ")").list();
-        List<UserDTO> userDTOList = users.stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        // 按点赞顺序批量查询用户缓存
+        List<UserDTO> userDTOList = userProfileCache.getUsers(ids);
         return Result.ok(userDTOList);
     }
 
@@ -139,25 +213,89 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 将本博客，发送至当前用户的粉丝
         if (!isSuccess)
             return Result.fail("新增笔记失败");
-        // 查询粉丝
-        List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
-        for (Follow follow : follows) {
-            Long userId = follow.getUserId();
-            String key = FEED_KEY + userId;
-            stringRedisTemplate.opsForZSet().add(key, blog.getId().toString(), System.currentTimeMillis());
-        }
+        // 加入热门排行
+        blogHotRank.add(blog.getId(), LocalDateTime.now());
+        // 异步推送至粉丝收件箱，发布耗时与粉丝数量无关
+        feedDispatcher.publish(blog.getId(), user.getId(), System.currentTimeMillis());
         return Result.ok(blog.getId());
     }
 
     @Override
     public Result queryBlogFollow(Long max, Integer offset) {
-        // 查询当前用户收件箱
         Long userId = UserHolder.getUser().getId();
-        String key = FEED_KEY + userId;
-        // ZREVRANGEBYSCORE key max 0 WITHSCORES LIMIT offset 3
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
-                .reverseRangeByScoreWithScores(key, 0, max, offset, 2);
-        if (typedTuples == null || typedTuples.isEmpty())
+        String inboxKey = FEED_KEY + userId;
+        // 1.数据源：自己的收件箱，以及关注的大V的发件箱
+        followService.ensureFollowsLoaded(userId);
+        Set<String> followees = stringRedisTemplate.opsForSet().members(FOLLOW_KEY + userId);
+        Set<String> bigAuthors = stringRedisTemplate.opsForSet().intersect(FOLLOW_KEY + userId, FEED_BIG_AUTHOR_KEY);
+        if (bigAuthors == null)
+            bigAuthors = Collections.emptySet();
+        List<Long> pushAuthors = new ArrayList<>();
+        if (followees != null) {
+            for (String followee : followees) {
+                if (!bigAuthors.contains(followee) && !FollowServiceImpl.SENTINEL.equals(followee))
+                    pushAuthors.add(Long.valueOf(followee));
+            }
+        }
+        // 每个数据源及其包含的作者：收件箱对应普通作者，每个发件箱对应一个大V
+        List<String> keys = new ArrayList<>();
+        List<List<Long>> sourceAuthors = new ArrayList<>();
+        keys.add(inboxKey);
+        sourceAuthors.add(pushAuthors);
+        for (String authorId : bigAuthors) {
+            keys.add(FEED_OUTBOX_KEY + authorId);
+            sourceAuthors.add(Collections.singletonList(Long.valueOf(authorId)));
+        }
+        // 2.收件箱、发件箱已过期(或从未创建)时从数据库重建，
+        // 发件箱重建时包含大V在成为大V之前发布的博客
+        List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.exists(key);
+            }
+            return null;
+        });
+        for (int i = 0; i < keys.size(); i++) {
+            if (!Boolean.TRUE.equals(exists.get(i)))
+                rebuildFeed(keys.get(i), sourceAuthors.get(i));
+        }
+        // 3.pipeline查询每个数据源的前offset+n条，合并后的结果一定在其中，同时刷新有效期
+        // ZREVRANGEBYSCORE key max 0 WITHSCORES LIMIT 0 offset+n
+        int count = offset + FEED_PAGE_SIZE;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.expire(key, TimeUnit.DAYS.toSeconds(FEED_TTL));
+                conn.zCard(key);
+                // 数据源中最早的博客，跳过score为负数的占位元素
+                conn.zRangeByScoreWithScores(key, 0, Double.POSITIVE_INFINITY, 0, 1);
+                conn.zRevRangeByScoreWithScores(key, 0, max, 0, count);
+            }
+            return null;
+        });
+        List<ZSetOperations.TypedTuple<String>> merged = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            Long size = (Long) results.get(i * 4 + 1);
+            Set<ZSetOperations.TypedTuple<String>> oldest = (Set<ZSetOperations.TypedTuple<String>>) results.get(i * 4 + 2);
+            Set<ZSetOperations.TypedTuple<String>> hits = (Set<ZSetOperations.TypedTuple<String>>) results.get(i * 4 + 3);
+            merged.addAll(hits);
+            // 4.数据源已被裁剪且本页翻过了它的末尾，其中作者更早的博客从数据库查询
+            if (size != null && size >= FEED_INBOX_MAX_SIZE && hits.size() < count && !oldest.isEmpty()) {
+                ZSetOperations.TypedTuple<String> tail = oldest.iterator().next();
+                long before = Math.min(max, tail.getScore().longValue());
+                // id自增，比数据源中最早的博客更早发布的博客id一定更小，避免精度不同导致边界上的博客重复
+                merged.addAll(queryFeedFromDb(sourceAuthors.get(i), before, Long.valueOf(tail.getValue()), count));
+            }
+        }
+        // 5.多路归并：按score倒序，score相同时与ZSet一致按member倒序，跳过offset条后取n条
+        // 收件箱的score是发布时的毫秒数，数据库的score是精确到秒的create_time，边界上的博客可能同时出现在两边，按id去重
+        merged.sort(Comparator.comparing((ZSetOperations.TypedTuple<String> t) -> t.getScore()).reversed()
+                .thenComparing(ZSetOperations.TypedTuple::getValue, Comparator.reverseOrder()));
+        Set<String> seen = new HashSet<>();
+        List<ZSetOperations.TypedTuple<String>> typedTuples = merged.stream()
+                .filter(t -> seen.add(t.getValue()))
+                .skip(offset).limit(FEED_PAGE_SIZE).collect(Collectors.toList());
+        if (typedTuples.isEmpty())
             return Result.ok();
         // 解析数据：blogId，minTime，offset
         List<Long> ids = new ArrayList<>();
@@ -177,12 +315,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         String idStr = StrUtil.join(",", ids);
         List<Blog> blogs = query().in("id", ids)
                 .last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Blog blog : blogs) {
-            // 查询当前笔记用户信息
-            queryBlogUser(blog);
-            // 查询是否已经被点赞
-            isBlogLiked(blog);
-        }
+        // 批量查询笔记用户信息及是否已经被点赞
+        hydrateBlogs(blogs);
         ScrollResult scrollResult = new ScrollResult();
         scrollResult.setList(blogs);
         scrollResult.setMinTime(minTime);
@@ -190,10 +324,38 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(scrollResult);
     }
 
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    // 从数据库重建收件箱或发件箱：作者们最新的FEED_INBOX_MAX_SIZE篇博客
+    private void rebuildFeed(String key, List<Long> authorIds) {
+        List<ZSetOperations.TypedTuple<String>> tuples = queryFeedFromDb(authorIds, Long.MAX_VALUE, null, FEED_INBOX_MAX_SIZE);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            // 占位元素，score为负数不会被查询到，避免没有博客的用户每次都重建
+            conn.zAdd(key, -1, "0");
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                conn.zAdd(key, tuple.getScore(), tuple.getValue());
+            }
+            conn.expire(key, TimeUnit.DAYS.toSeconds(FEED_TTL));
+            return null;
+        });
+    }
+
+    // 查询作者们发布时间不晚于before、id小于beforeId的最新limit篇博客，score为发布时间
+    private List<ZSetOperations.TypedTuple<String>> queryFeedFromDb(List<Long> authorIds, long before, Long beforeId, int limit) {
+        if (authorIds.isEmpty())
+            return Collections.emptyList();
+        LocalDateTime beforeTime = before == Long.MAX_VALUE ? null
+                : LocalDateTime.ofInstant(Instant.ofEpochMilli(before), ZoneId.systemDefault());
+        List<Blog> blogs = query()
+                .select("id", "create_time")
+                .in("user_id", authorIds)
+                .le(beforeTime != null, "create_time", beforeTime)
+                .lt(beforeId != null, "id", beforeId)
+                .orderByDesc("create_time", "id")
+                .last("LIMIT " + limit)
+                .list();
+        return blogs.stream()
+                .map(blog -> new DefaultTypedTuple<>(blog.getId().toString(),
+                        (double) blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()))
+                .collect(Collectors.toList());
     }
 }
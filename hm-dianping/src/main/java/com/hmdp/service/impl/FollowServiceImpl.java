@@ -1,24 +1,36 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.FollowMapper;
+import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.FollowGraph;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UserProfileCache;
+import com.hmdp.utils.WriteBehindCounter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
-import java.util.Collections;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.MAX_PAGE_SIZE;
 
 /**
  * <p>
@@ -30,56 +42,254 @@ import java.util.stream.Stream;
  */
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
+    // 集合中的占位成员，保证没有关注任何人的用户集合也存在，避免反复回源数据库
+    public static final String SENTINEL = "0";
+    // 从数据库加载集合时每批读取的数量
+    private static final int LOAD_BATCH_SIZE = 1000;
+    // 关注集合不存在时重新加载并重试的次数
+    private static final int CHANGE_FOLLOW_RETRIES = 3;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private UserServiceImpl userService;
+    @Resource
+    private UserInfoMapper userInfoMapper;
+    @Resource
+    private WriteBehindCounter writeBehindCounter;
+    @Resource
+    private UserProfileCache userProfileCache;
+    // 未开启关注关系图时为null
+    @Autowired(required = false)
+    private FollowGraph followGraph;
+
+    private static final DefaultRedisScript<Long> SET_INIT_SCRIPT;
+    private static final DefaultRedisScript<Long> FOLLOW_SCRIPT;
+
+    static {
+        FOLLOW_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_SCRIPT.setLocation(new ClassPathResource("follow.lua"));
+        FOLLOW_SCRIPT.setResultType(Long.class);
+        SET_INIT_SCRIPT = new DefaultRedisScript<>();
+        SET_INIT_SCRIPT.setLocation(new ClassPathResource("set_init.lua"));
+        SET_INIT_SCRIPT.setResultType(Long.class);
+    }
 
     @Override
     public Result follow(Long followUserId, Boolean isFollow) {
         Long userId = UserHolder.getUser().getId();
-        // 判断关注状态
-        if (isFollow) {
-            Follow follow = new Follow();
-            follow.setUserId(userId);
-            follow.setFollowUserId(followUserId);
-            boolean isSuccess = save(follow);
-            if (isSuccess) {
-                String key = "follow:" + userId;
-                stringRedisTemplate.opsForSet().add(key, followUserId.toString());
-            }
-        } else {
-            QueryWrapper<Follow> queryWrapper = new QueryWrapper<>();
-            queryWrapper.eq("user_id", userId).eq("follow_user_id", followUserId);
-            boolean isSuccess = remove(queryWrapper);
-            if (isSuccess) {
-                String key = "follow:" + userId;
-                stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
+        if (userId.equals(followUserId)) {
+            return Result.fail("不能关注自己");
+        }
+        // 1.先确保缓存已加载，再由脚本原子地修改关注集合、粉丝集合和计数增量
+        ensureFollowsLoaded(userId);
+        ensureFansLoaded(followUserId);
+        if (!changeFollow(userId, followUserId, isFollow)) {
+            // 关注状态没有变化
+            return Result.ok();
+        }
+        // 2.写数据库，失败时回滚缓存
+        try {
+            if (isFollow) {
+                Follow follow = new Follow();
+                follow.setUserId(userId);
+                follow.setFollowUserId(followUserId);
+                save(follow);
+            } else {
+                QueryWrapper<Follow> queryWrapper = new QueryWrapper<>();
+                queryWrapper.eq("user_id", userId).eq("follow_user_id", followUserId);
+                remove(queryWrapper);
             }
+        } catch (RuntimeException e) {
+            changeFollow(userId, followUserId, !isFollow);
+            throw e;
         }
         return Result.ok();
     }
 
+    private boolean changeFollow(Long userId, Long followUserId, boolean isFollow) {
+        for (int i = 0; i < CHANGE_FOLLOW_RETRIES; i++) {
+            Long result = stringRedisTemplate.execute(FOLLOW_SCRIPT,
+                    Arrays.asList(FOLLOW_KEY + userId, FANS_KEY + followUserId,
+                            USER_FOLLOWEE_DELTA_KEY, USER_FANS_DELTA_KEY),
+                    userId.toString(), followUserId.toString(), isFollow ? "1" : "0", FOLLOW_EVENT_CHANNEL);
+            if (result == null || result != -1L) {
+                return result != null && result == 1L;
+            }
+            // 关注集合在加载后被删除，重新加载后重试
+            ensureFollowsLoaded(userId);
+        }
+        throw new IllegalStateException("关注集合加载失败：" + userId);
+    }
+
+    // 定时将关注数、粉丝数增量批量写回tb_user_info
+    @Scheduled(fixedDelay = 5000)
+    public void flushFollowCount() {
+        writeBehindCounter.drain(USER_FOLLOWEE_DELTA_KEY, deltas -> {
+            userInfoMapper.incrCounters("followee", deltas);
+            userProfileCache.invalidate(deltas.keySet());
+        });
+        writeBehindCounter.drain(USER_FANS_DELTA_KEY, deltas -> {
+            userInfoMapper.incrCounters("fans", deltas);
+            userProfileCache.invalidate(deltas.keySet());
+        });
+    }
+
     @Override
     public Result isFollow(Long followUserId) {
         Long userId = UserHolder.getUser().getId();
-        Integer count = query().eq("user_id", userId).eq("follow_user_id", followUserId).count();
-        return Result.ok(count > 0);
+        ensureFollowsLoaded(userId);
+        Boolean isMember = stringRedisTemplate.opsForSet().isMember(FOLLOW_KEY + userId, followUserId.toString());
+        return Result.ok(Boolean.TRUE.equals(isMember));
+    }
+
+    @Override
+    public Result isFollowBatch(List<Long> followUserIds) {
+        Long userId = UserHolder.getUser().getId();
+        if (followUserIds == null || followUserIds.isEmpty()) {
+            return Result.ok(Collections.emptyMap());
+        }
+        ensureFollowsLoaded(userId);
+        // pipeline批量判断，一次往返
+        String key = FOLLOW_KEY + userId;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long id : followUserIds) {
+                conn.sIsMember(key, id.toString());
+            }
+            return null;
+        });
+        Map<Long, Boolean> map = new LinkedHashMap<>(followUserIds.size());
+        for (int i = 0; i < followUserIds.size(); i++) {
+            map.put(followUserIds.get(i), Boolean.TRUE.equals(results.get(i)));
+        }
+        return Result.ok(map);
+    }
+
+    @Override
+    public Result queryFollowCount(Long id) {
+        ensureFollowsLoaded(id);
+        ensureFansLoaded(id);
+        Map<String, Long> counts = new HashMap<>(2);
+        counts.put("followee", countOf(FOLLOW_KEY + id));
+        counts.put("fans", countOf(FANS_KEY + id));
+        return Result.ok(counts);
     }
 
     @Override
     public Result followCommons(Long id) {
         Long userId = UserHolder.getUser().getId();
-        String key1 = "follow:" + userId;
-        String key2 = "follow:" + id;
-        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key1, key2);
-        if (intersect == null || intersect.isEmpty())
-            return Result.ok(Collections.emptyList());
-        List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
-        List<UserDTO> users = userService.listByIds(ids)
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class)).collect(Collectors.toList());
-        return Result.ok(users);
+        List<Long> ids;
+        if (followGraph != null && followGraph.isReady()) {
+            // 开启关注关系图时在本机内存中求交集
+            ids = followGraph.commonFollows(userId, id);
+        } else {
+            ensureFollowsLoaded(userId);
+            ensureFollowsLoaded(id);
+            String key1 = FOLLOW_KEY + userId;
+            String key2 = FOLLOW_KEY + id;
+            Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key1, key2);
+            if (intersect == null || intersect.isEmpty())
+                return Result.ok(Collections.emptyList());
+            ids = intersect.stream()
+                    .filter(member -> !SENTINEL.equals(member))
+                    .map(Long::valueOf)
+                    .collect(Collectors.toList());
+        }
+        return Result.ok(toUserDTOs(ids));
+    }
+
+    @Override
+    public Result followCommonCount(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        if (followGraph != null && followGraph.isReady()) {
+            return Result.ok(followGraph.commonFollowCount(userId, id));
+        }
+        ensureFollowsLoaded(userId);
+        ensureFollowsLoaded(id);
+        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(FOLLOW_KEY + userId, FOLLOW_KEY + id);
+        if (intersect == null)
+            return Result.ok(0);
+        // 占位成员只在两个集合都有时出现在交集中
+        return Result.ok(intersect.contains(SENTINEL) ? intersect.size() - 1 : intersect.size());
+    }
 
+    @Override
+    public Result recommend(Integer size) {
+        if (followGraph == null || !followGraph.isReady()) {
+            return Result.fail("推荐功能暂不可用");
+        }
+        Long userId = UserHolder.getUser().getId();
+        List<Long> ids = followGraph.recommend(userId, Math.min(size, MAX_PAGE_SIZE));
+        return Result.ok(toUserDTOs(ids));
+    }
+
+    // 按ids顺序查询用户信息
+    private List<UserDTO> toUserDTOs(List<Long> ids) {
+        if (ids.isEmpty())
+            return Collections.emptyList();
+        Map<Long, UserDTO> users = userService.queryUserDTOMap(ids);
+        return ids.stream().map(users::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    @Override
+    public void ensureFollowsLoaded(Long userId) {
+        ensureLoaded(FOLLOW_KEY + userId, "user_id", userId, Follow::getFollowUserId);
+    }
+
+    @Override
+    public void ensureFansLoaded(Long userId) {
+        ensureLoaded(FANS_KEY + userId, "follow_user_id", userId, Follow::getUserId);
+    }
+
+    // 集合不存在时从数据库加载：分批写入临时key，再由脚本在目标key仍不存在时改名，避免覆盖并发写入的结果
+    private void ensureLoaded(String key, String column, Long userId, Function<Follow, Long> getter) {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return;
+        }
+        String tmpKey = key + ":load:" + UUID.randomUUID().toString(true);
+        stringRedisTemplate.opsForSet().add(tmpKey, SENTINEL);
+        stringRedisTemplate.expire(tmpKey, 1, TimeUnit.MINUTES);
+        long lastId = 0;
+        while (true) {
+            List<Follow> follows = query()
+                    .select("id", "user_id", "follow_user_id")
+                    .eq(column, userId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + LOAD_BATCH_SIZE)
+                    .list();
+            if (follows.isEmpty()) {
+                break;
+            }
+            String[] members = follows.stream().map(f -> getter.apply(f).toString()).toArray(String[]::new);
+            stringRedisTemplate.opsForSet().add(tmpKey, members);
+            lastId = follows.get(follows.size() - 1).getId();
+            if (follows.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+        }
+        stringRedisTemplate.execute(SET_INIT_SCRIPT, Arrays.asList(tmpKey, key));
+    }
+
+    @Override
+    public long countFans(Long userId) {
+        ensureFansLoaded(userId);
+        return countOf(FANS_KEY + userId);
+    }
+
+    // 集合大小，存在占位成员时减去；早于占位成员引入时创建的集合没有占位成员
+    private long countOf(String key) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.sCard(key);
+            conn.sIsMember(key, SENTINEL);
+            return null;
+        });
+        Long size = (Long) results.get(0);
+        if (size == null) {
+            return 0L;
+        }
+        return Boolean.TRUE.equals(results.get(1)) ? Math.max(size - 1, 0L) : size;
     }
 }
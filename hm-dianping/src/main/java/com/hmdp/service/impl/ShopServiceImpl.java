@@ -9,8 +9,12 @@ import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.KeysetPager;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopSearchIndex;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -18,11 +22,18 @@ import org.springframework.transaction.annotation.Transactional;
 import javax.annotation.Resource;
 
 import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.MAX_PAGE_SIZE;
 
 /**
  * <p>
@@ -41,6 +52,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+
     @Override
     public Result queryById(Long id) {
         // 缓存穿透
@@ -235,6 +249,70 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 2.删除缓存
         String key = CACHE_SHOP_KEY + id;
         stringRedisTemplate.delete(key);
+        // 3.更新搜索索引(请求中可能只包含部分字段，重新查询完整数据)，名称变化时put会替换旧的n-gram
+        Shop latest = getById(id);
+        if (latest == null) {
+            // 商铺已不存在，从索引中移除
+            shopSearchIndex.remove(id);
+        } else {
+            shopSearchIndex.put(latest);
+        }
         return Result.ok();
     }
+
+    @Override
+    public Result saveShop(Shop shop) {
+        // 1.写入数据库
+        save(shop);
+        // 2.写入搜索索引
+        shopSearchIndex.put(shop);
+        // 3.返回店铺id
+        return Result.ok(shop.getId());
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current, String cursor) {
+        // 1.无关键字或索引尚未加载完成时查询数据库
+        List<Long> ids = null;
+        int offset = 0;
+        String[] parts = KeysetPager.decode(cursor);
+        // 索引游标为"s:偏移量"，数据库游标为id，翻页途中不切换查询方式
+        boolean fromDb = parts != null && parts.length == 1;
+        if (StrUtil.isNotBlank(name) && !fromDb) {
+            if (parts != null) {
+                offset = Integer.parseInt(parts[1]);
+            } else if (cursor == null) {
+                offset = (current - 1) * MAX_PAGE_SIZE;
+            }
+            // 多查一条用于判断是否还有下一页
+            ids = shopSearchIndex.search(name, offset, MAX_PAGE_SIZE + 1);
+        }
+        if (ids == null) {
+            return queryShopByNameFromDb(name, current, cursor);
+        }
+        // 2.查询索引命中的商铺，按搜索结果排序
+        String next = null;
+        if (ids.size() > MAX_PAGE_SIZE) {
+            ids = ids.subList(0, MAX_PAGE_SIZE);
+            next = KeysetPager.encode("s", offset + MAX_PAGE_SIZE);
+        }
+        List<Shop> shops = Collections.emptyList();
+        if (!ids.isEmpty()) {
+            Map<Long, Shop> shopMap = listByIds(ids).stream()
+                    .collect(Collectors.toMap(Shop::getId, Function.identity()));
+            shops = ids.stream().map(shopMap::get).filter(Objects::nonNull).collect(Collectors.toList());
+        }
+        return cursor != null ? Result.ok(new CursorResult(shops, next)) : Result.ok(shops);
+    }
+
+    private Result queryShopByNameFromDb(String name, Integer current, String cursor) {
+        if (cursor != null) {
+            return Result.ok(KeysetPager.page(query().like(StrUtil.isNotBlank(name), "name", name),
+                    Shop::getId, false, cursor, MAX_PAGE_SIZE));
+        }
+        Page<Shop> page = query()
+                .like(StrUtil.isNotBlank(name), "name", name)
+                .page(new Page<>(current, MAX_PAGE_SIZE, false));
+        return Result.ok(page.getRecords());
+    }
 }
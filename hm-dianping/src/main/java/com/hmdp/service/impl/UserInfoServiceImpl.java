@@ -1,11 +1,16 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UserProfileCache;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+
 /**
  * <p>
  *  服务实现类
@@ -16,5 +21,25 @@ import org.springframework.stereotype.Service;
  */
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
+    @Resource
+    private UserProfileCache userProfileCache;
 
+    @Override
+    public Result updateMyInfo(UserInfo userInfo) {
+        Long userId = UserHolder.getUser().getId();
+        if (userInfo.getCity() == null && userInfo.getIntroduce() == null
+                && userInfo.getGender() == null && userInfo.getBirthday() == null) {
+            return Result.fail("没有需要修改的内容");
+        }
+        // 粉丝数、关注数、积分、等级由系统维护，不允许修改
+        UserInfo update = new UserInfo()
+                .setUserId(userId)
+                .setCity(userInfo.getCity())
+                .setIntroduce(userInfo.getIntroduce())
+                .setGender(userInfo.getGender())
+                .setBirthday(userInfo.getBirthday());
+        saveOrUpdate(update);
+        userProfileCache.invalidate(userId);
+        return Result.ok();
+    }
 }
@@ -1,9 +1,8 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
-import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
@@ -11,6 +10,9 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.SessionStore;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UserProfileCache;
 import com.hmdp.utils.RegexUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -18,8 +20,7 @@ import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -39,6 +40,10 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SessionStore sessionStore;
+    @Resource
+    private UserProfileCache userProfileCache;
 
     @Override
     public Result sendCode(String phone, HttpSession session) {
@@ -78,23 +83,46 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             // 6.用户不存在，注册新用户
             user = createUserWithPhone(phone);
         }
-        // 7.保存用户至redis
-        // 7.1随即生成token作为登录令牌，同时作为redis的key
-        String token = UUID.randomUUID().toString(true);
-        // 7.2将user对象转换为Hash存储
+        // 7.保存用户至redis，随机生成token作为登录令牌
         UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(),
-                CopyOptions.create()
-                        .setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
-        // 7.3存储
-        String tokenKey = LOGIN_USER_KEY + token;
-        stringRedisTemplate.opsForHash().putAll(tokenKey, userMap);
-        // 7.4设置有效期
-        stringRedisTemplate.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        String token = sessionStore.create(userDTO);
         return Result.ok(token);
     }
 
+    @Override
+    public Result logout(String token) {
+        if (StrUtil.isNotBlank(token)) {
+            sessionStore.remove(token);
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Map<Long, UserDTO> queryUserDTOMap(Collection<Long> ids) {
+        return userProfileCache.getUserMap(ids);
+    }
+
+    @Override
+    public Result updateMe(User user, String token) {
+        Long userId = UserHolder.getUser().getId();
+        // 只允许修改昵称和头像
+        User update = new User();
+        update.setId(userId);
+        update.setNickName(StrUtil.isBlank(user.getNickName()) ? null : user.getNickName());
+        update.setIcon(StrUtil.isBlank(user.getIcon()) ? null : user.getIcon());
+        if (update.getNickName() == null && update.getIcon() == null) {
+            return Result.fail("没有需要修改的内容");
+        }
+        updateById(update);
+        userProfileCache.invalidate(userId);
+        // 更新当前会话中的昵称、头像
+        UserDTO userDTO = userProfileCache.getUser(userId);
+        if (userDTO != null && StrUtil.isNotBlank(token)) {
+            sessionStore.refresh(token, userDTO);
+        }
+        return Result.ok();
+    }
+
     private User createUserWithPhone(String phone) {
         // 1.创建用户
         User user = new User();
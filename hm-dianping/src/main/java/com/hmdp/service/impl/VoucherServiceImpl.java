@@ -7,14 +7,21 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -24,6 +31,7 @@ import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
 
@@ -52,7 +60,40 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存库存信息到redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 保存库存信息到redis中，秒杀结束一段时间后库存、已下单用户等数据自动过期
+        // 写入时同时设置过期时间，避免写入后、设置过期前宕机留下永不过期的key
+        long expireAt = expireAt(voucher.getEndTime());
+        Duration ttl = Duration.ofSeconds(expireAt - System.currentTimeMillis() / 1000);
+        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString(), ttl);
+        stringRedisTemplate.opsForValue().set(SECKILL_EXPIRE_KEY + voucher.getId(), String.valueOf(expireAt), ttl);
+    }
+
+    // 为未结束的秒杀补上过期时间：旧版本写入的库存key没有过期时间，也没有seckill:expire key，
+    // 已下单用户位图因此不会过期
+    @PostConstruct
+    private void backfillSeckillExpire() {
+        try {
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .gt("end_time", LocalDateTime.now()).list();
+            for (SeckillVoucher voucher : vouchers) {
+                long expireAt = expireAt(voucher.getEndTime());
+                Duration ttl = Duration.ofSeconds(expireAt - System.currentTimeMillis() / 1000);
+                Long id = voucher.getVoucherId();
+                stringRedisTemplate.opsForValue().setIfAbsent(SECKILL_EXPIRE_KEY + id, String.valueOf(expireAt), ttl);
+                // 只处理没有过期时间的key，库存key不存在时不补建，避免重置已售出的库存
+                for (String key : Arrays.asList(SECKILL_STOCK_KEY + id, SECKILL_BUYER_KEY + id)) {
+                    Long current = stringRedisTemplate.getExpire(key);
+                    if (current != null && current == -1) {
+                        stringRedisTemplate.expireAt(key, new Date(expireAt * 1000));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("补充秒杀数据过期时间失败", e);
+        }
+    }
+
+    private static long expireAt(LocalDateTime endTime) {
+        return endTime.plusDays(SECKILL_KEEP_DAYS).atZone(ZoneId.systemDefault()).toEpochSecond();
     }
 }
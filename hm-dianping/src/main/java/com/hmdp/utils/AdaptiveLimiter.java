@@ -0,0 +1,168 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// 自适应并发限制：根据下游(redis、mysql)的响应时间动态调整允许同时进行的调用数，超出时立即失败
+// 采用梯度算法：长期平均响应时间作为无排队时的基准，短期响应时间明显变长说明下游开始排队，按比例降低限制；
+// 响应时间正常时限制每次增加约sqrt(limit)，下游超时或连接失败时限制直接降低10%
+// 每次调用只累加响应时间，每个窗口(WINDOW_SAMPLES次调用或1秒)由一个线程汇总后调整限制，调用路径上没有锁
+public class AdaptiveLimiter implements MeterBinder {
+    // 每个窗口的调用次数，调用较少时最长1秒调整一次
+    private static final int WINDOW_SAMPLES = 20;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // 短期、长期响应时间的平滑系数，长期约为最近600次调用的平均值
+    private static final double SHORT_RTT_ALPHA = 0.5;
+    private static final double LONG_RTT_ALPHA = (double) WINDOW_SAMPLES / 600;
+    // 短期响应时间不超过长期的该倍数时认为下游没有排队
+    private static final double RTT_TOLERANCE = 1.5;
+    // 新限制的平滑系数，避免限制剧烈波动
+    private static final double LIMIT_SMOOTHING = 0.2;
+    // 下游超时或连接失败时限制的缩减比例
+    private static final double DROP_DECREASE = 0.9;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+
+    private volatile double limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile double shortRtt;
+    private double longRtt;
+
+    // 当前窗口的调用次数、响应时间之和、最大并发数，以及是否发生过超时或连接失败
+    private final LongAdder windowSamples = new LongAdder();
+    private final LongAdder windowRttSum = new LongAdder();
+    private final LongAccumulator windowMaxInFlight = new LongAccumulator(Math::max, 0);
+    private volatile boolean windowDropped;
+    private volatile long windowStart = System.nanoTime();
+    // 同一时刻只有一个线程汇总窗口
+    private final AtomicBoolean updating = new AtomicBoolean(false);
+
+    public AdaptiveLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+        this.name = name;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * 开始一次调用
+     * @return 开始时间，调用结束后传给release
+     * @throws OverloadException 同时进行的调用数已达到限制
+     */
+    public long acquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.increment();
+                throw new OverloadException(name);
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * 结束一次调用并根据响应时间调整限制
+     * @param start acquire返回的开始时间
+     * @param dropped 下游是否超时或连接失败
+     */
+    public void release(long start, boolean dropped) {
+        long now = System.nanoTime();
+        int current = inFlight.getAndDecrement();
+        windowSamples.increment();
+        windowRttSum.add(now - start);
+        windowMaxInFlight.accumulate(current);
+        if (dropped) {
+            windowDropped = true;
+        }
+        // 窗口已满、已超时或发生超时、连接失败时汇总，其他线程正在汇总时跳过
+        if ((dropped || windowSamples.sum() >= WINDOW_SAMPLES || now - windowStart >= WINDOW_NANOS)
+                && updating.compareAndSet(false, true)) {
+            try {
+                update(now);
+            } finally {
+                updating.set(false);
+            }
+        }
+    }
+
+    // 汇总窗口并调整限制，由updating保证只有一个线程执行
+    // 汇总期间并发累加的调用可能分属前后两个窗口，只影响一次平均值
+    private void update(long now) {
+        long samples = windowSamples.sumThenReset();
+        long rttSum = windowRttSum.sumThenReset();
+        long current = windowMaxInFlight.getThenReset();
+        boolean dropped = windowDropped;
+        windowDropped = false;
+        windowStart = now;
+        if (dropped) {
+            limit = Math.max(minLimit, limit * DROP_DECREASE);
+            return;
+        }
+        if (samples == 0) {
+            return;
+        }
+        double rtt = (double) rttSum / samples;
+        // 1.更新短期、长期响应时间，第一个窗口直接作为初始值
+        if (longRtt == 0) {
+            shortRtt = rtt;
+            longRtt = rtt;
+            return;
+        }
+        shortRtt += (rtt - shortRtt) * SHORT_RTT_ALPHA;
+        longRtt += (rtt - longRtt) * LONG_RTT_ALPHA;
+        // 下游长期变慢后恢复时，让基准更快地回落
+        if (longRtt / shortRtt > 2) {
+            longRtt *= 0.95;
+        }
+        // 2.并发远低于限制时说明流量不大，响应时间不能反映限制是否合适，不调整
+        if (current < limit / 2) {
+            return;
+        }
+        // 3.按响应时间梯度调整
+        double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * longRtt / shortRtt));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        newLimit = limit * (1 - LIMIT_SMOOTHING) + newLimit * LIMIT_SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("hmdp.limiter.limit", this, AdaptiveLimiter::getLimit)
+                .tag("downstream", name).description("允许同时进行的调用数").register(registry);
+        Gauge.builder("hmdp.limiter.inflight", this, AdaptiveLimiter::getInFlight)
+                .tag("downstream", name).description("正在进行的调用数").register(registry);
+        Gauge.builder("hmdp.limiter.rtt", this, l -> l.shortRtt / TimeUnit.MILLISECONDS.toNanos(1))
+                .tag("downstream", name).baseUnit("milliseconds").description("短期平均响应时间").register(registry);
+        FunctionCounter.builder("hmdp.limiter.rejected", this, AdaptiveLimiter::getRejected)
+                .tag("downstream", name).description("超出限制被拒绝的调用数").register(registry);
+    }
+}
@@ -0,0 +1,180 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.*;
+
+// 热门博客排行：blog:hot中保存每篇博客的热度，点赞、评论时增量更新，缺失时在后台从数据库重建
+@Slf4j
+@Component
+public class BlogHotRank {
+    // 重建时每批读取的博客数量
+    private static final int REBUILD_BATCH_SIZE = 1000;
+    // 占位成员
+    private static final String PLACEHOLDER = "0";
+
+    private static final DefaultRedisScript<Long> HOT_RANK_INCR_SCRIPT;
+    private static final DefaultRedisScript<Long> HOT_RANK_SWAP_SCRIPT;
+
+    static {
+        HOT_RANK_INCR_SCRIPT = new DefaultRedisScript<>();
+        HOT_RANK_INCR_SCRIPT.setLocation(new ClassPathResource("hot_rank_incr.lua"));
+        HOT_RANK_INCR_SCRIPT.setResultType(Long.class);
+        HOT_RANK_SWAP_SCRIPT = new DefaultRedisScript<>();
+        HOT_RANK_SWAP_SCRIPT.setLocation(new ClassPathResource("hot_rank_swap.lua"));
+        HOT_RANK_SWAP_SCRIPT.setResultType(Long.class);
+    }
+
+    private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BlogMapper blogMapper;
+    @Resource
+    private RedissonClient redissonClient;
+
+    @PreDestroy
+    private void destroy() {
+        rebuildExecutor.shutdown();
+    }
+
+    // 是否按发布时间衰减：开启后热度 = 点赞/评论热度 + 发布时间/BLOG_HOT_DECAY_SECONDS，新博客天然排在前面
+    @Value("${hmdp.blog.hot.time-decay:false}")
+    private boolean timeDecay;
+
+    // 新博客的初始热度
+    public double baseScore(LocalDateTime createTime) {
+        if (!timeDecay || createTime == null) {
+            return 0;
+        }
+        long seconds = createTime.atZone(ZoneId.systemDefault()).toEpochSecond();
+        return (double) seconds / BLOG_HOT_DECAY_SECONDS;
+    }
+
+    public void add(Long blogId, LocalDateTime createTime) {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+            stringRedisTemplate.opsForZSet().add(BLOG_HOT_KEY, blogId.toString(), baseScore(createTime));
+        }
+    }
+
+    public void incr(Long blogId, double delta) {
+        stringRedisTemplate.execute(HOT_RANK_INCR_SCRIPT,
+                Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_REBUILDING_KEY, BLOG_HOT_PENDING_KEY),
+                blogId.toString(), String.valueOf(delta));
+    }
+
+    // 博客是否在排行榜中，排行榜包含所有博客，不在其中(或排行榜不存在)时需要查询数据库确认
+    public boolean contains(Long blogId) {
+        return stringRedisTemplate.opsForZSet().score(BLOG_HOT_KEY, blogId.toString()) != null;
+    }
+
+    // 按热度倒序查询一页博客id，排行榜不存在时在后台重建并返回null，由调用方降级查询数据库
+    public List<Long> queryIds(long start, int size) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+            rebuildAsync();
+            return null;
+        }
+        // 跳过score为负无穷的占位成员
+        Set<String> ids = stringRedisTemplate.opsForZSet()
+                .reverseRangeByScore(BLOG_HOT_KEY, -Double.MAX_VALUE, Double.POSITIVE_INFINITY, start, size);
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return ids.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    // 提交后台重建任务，本实例已有任务在执行或排队时忽略
+    public void rebuildAsync() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        rebuildExecutor.execute(() -> {
+            try {
+                rebuild();
+            } finally {
+                rebuilding.set(false);
+            }
+        });
+    }
+
+    /**
+     * 从数据库重建排行榜：按主键分批读取，写入临时key后整体替换
+     * 重建期间的点赞、评论热度记在blog:hot:pending中，替换时在同一个脚本中补上
+     * (重建开始后、该博客被读取前已写回数据库的点赞会被重复计入，排行榜只需近似准确)
+     */
+    public boolean rebuild() {
+        RLock lock = redissonClient.getLock("lock:" + BLOG_HOT_KEY);
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            String tmpKey = BLOG_HOT_KEY + ":rebuild";
+            stringRedisTemplate.delete(Arrays.asList(tmpKey, BLOG_HOT_PENDING_KEY));
+            stringRedisTemplate.opsForValue().set(BLOG_HOT_REBUILDING_KEY, "1", BLOG_HOT_REBUILD_TTL, TimeUnit.MINUTES);
+            // 占位成员，没有博客时排行榜也存在，不会每次查询都重建
+            stringRedisTemplate.opsForZSet().add(tmpKey, PLACEHOLDER, Double.NEGATIVE_INFINITY);
+            long lastId = 0;
+            while (true) {
+                List<Blog> blogs = blogMapper.selectList(new QueryWrapper<Blog>()
+                        .select("id", "liked", "comments", "create_time")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + REBUILD_BATCH_SIZE));
+                if (blogs.isEmpty()) {
+                    break;
+                }
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Blog blog : blogs) {
+                        conn.zAdd(tmpKey, score(blog), blog.getId().toString());
+                    }
+                    return null;
+                });
+                lastId = blogs.get(blogs.size() - 1).getId();
+            }
+            stringRedisTemplate.execute(HOT_RANK_SWAP_SCRIPT,
+                    Arrays.asList(tmpKey, BLOG_HOT_KEY, BLOG_HOT_REBUILDING_KEY, BLOG_HOT_PENDING_KEY));
+            return true;
+        } catch (Exception e) {
+            log.error("重建热门博客排行失败", e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double score(Blog blog) {
+        int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+        int comments = blog.getComments() == null ? 0 : blog.getComments();
+        return baseScore(blog.getCreateTime()) + liked * BLOG_HOT_LIKE_WEIGHT + comments * BLOG_HOT_COMMENT_WEIGHT;
+    }
+}
@@ -0,0 +1,194 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.lang.UUID;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+// 分桶保存的登录会话：token前4位十六进制作为桶号，共65536个hash，field为token其余部分，value为"过期时间:用户id"
+// 每个会话不再单独占用一个key，桶内field数量和value长度都很小，redis使用紧凑的listpack/ziplist编码保存
+// (默认阈值128个field、64字节，约800万会话以内不会超出)。过期时间由value记录，定时任务分批清理过期的field
+// 续期和清理都在lua脚本中判断后再写入，避免与登出、续期并发时复活已失效的会话或删除刚续期的会话
+// 昵称、头像等资料不放在会话中，从用户资料缓存读取
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.login.token-mode", havingValue = "bucketed")
+public class BucketedSessionStore implements SessionStore {
+    // 桶号使用的token前缀长度，4位十六进制即65536个桶
+    private static final int BUCKET_PREFIX_LENGTH = 4;
+    private static final int BUCKET_COUNT = 1 << (BUCKET_PREFIX_LENGTH * 4);
+    // 每次清理的桶数量
+    private static final int SWEEP_BATCH_SIZE = 1024;
+    // 每次脚本调用清理的桶数量
+    private static final int SWEEP_SCRIPT_BUCKETS = 64;
+    // 本地缓存的会话数量
+    private static final int LOCAL_CACHE_SIZE = 100000;
+
+    private static final DefaultRedisScript<Long> SESSION_RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> SESSION_SWEEP_SCRIPT;
+
+    static {
+        SESSION_RENEW_SCRIPT = new DefaultRedisScript<>();
+        SESSION_RENEW_SCRIPT.setLocation(new ClassPathResource("session_renew.lua"));
+        SESSION_RENEW_SCRIPT.setResultType(Long.class);
+        SESSION_SWEEP_SCRIPT = new DefaultRedisScript<>();
+        SESSION_SWEEP_SCRIPT.setLocation(new ClassPathResource("session_sweep.lua"));
+        SESSION_SWEEP_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private UserProfileCache userProfileCache;
+
+    private final LRUCache<String, Session> localCache =
+            CacheUtil.newLRUCache(LOCAL_CACHE_SIZE, TimeUnit.SECONDS.toMillis(LOGIN_LOCAL_TTL));
+
+    private static class Session {
+        final Long userId;
+        volatile long expireAt;
+
+        Session(Long userId, long expireAt) {
+            this.userId = userId;
+            this.expireAt = expireAt;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        // 其他实例登出时清除本地缓存
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                localCache.remove(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(LOGIN_REVOKE_CHANNEL));
+    }
+
+    @Override
+    public String create(UserDTO user) {
+        String token = UUID.randomUUID().toString(true);
+        long expireAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+        stringRedisTemplate.opsForHash().put(bucketKey(token), field(token), expireAt + ":" + user.getId());
+        localCache.put(token, new Session(user.getId(), expireAt));
+        return token;
+    }
+
+    @Override
+    public UserDTO get(String token) {
+        if (!isValid(token)) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        // 1.本地缓存未命中时查询所在的桶
+        Session session = localCache.get(token, false);
+        if (session == null) {
+            Object value = stringRedisTemplate.opsForHash().get(bucketKey(token), field(token));
+            if (value == null) {
+                return null;
+            }
+            String[] parts = value.toString().split(":");
+            session = new Session(Long.valueOf(parts[1]), Long.parseLong(parts[0]));
+            localCache.put(token, session);
+        }
+        // 已过期但还未被清理
+        if (session.expireAt < now) {
+            localCache.remove(token);
+            return null;
+        }
+        // 2.剩余有效期低于阈值时续期，会话已在其他实例登出或被清理时续期失败
+        if (session.expireAt - now < TimeUnit.MINUTES.toMillis(LOGIN_USER_REFRESH_THRESHOLD)) {
+            long expireAt = now + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+            Long renewed = stringRedisTemplate.execute(SESSION_RENEW_SCRIPT,
+                    Collections.singletonList(bucketKey(token)),
+                    field(token), expireAt + ":" + session.userId, String.valueOf(now));
+            if (renewed == null || renewed == 0) {
+                localCache.remove(token);
+                return null;
+            }
+            session.expireAt = expireAt;
+        }
+        return userProfileCache.getUser(session.userId);
+    }
+
+    @Override
+    public void remove(String token) {
+        if (!isValid(token)) {
+            return;
+        }
+        stringRedisTemplate.opsForHash().delete(bucketKey(token), field(token));
+        localCache.remove(token);
+        stringRedisTemplate.convertAndSend(LOGIN_REVOKE_CHANNEL, token);
+    }
+
+    // 分批清理过期会话，每轮处理SWEEP_BATCH_SIZE个桶，约11分钟清理一遍
+    // 清理进度保存在redis中，各实例轮流获得锁时接着上一次的位置继续
+    @Scheduled(fixedDelay = 10000)
+    public void sweep() {
+        RLock lock = redissonClient.getLock("lock:" + LOGIN_BUCKET_KEY + "sweep");
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            String cursor = stringRedisTemplate.opsForValue().get(LOGIN_SWEEP_CURSOR_KEY);
+            int begin = cursor == null ? 0 : Integer.parseInt(cursor) % BUCKET_COUNT;
+            String now = String.valueOf(System.currentTimeMillis());
+            // 每次脚本调用处理SWEEP_SCRIPT_BUCKETS个桶，避免单次脚本阻塞redis过久
+            for (int i = begin; i < begin + SWEEP_BATCH_SIZE; i += SWEEP_SCRIPT_BUCKETS) {
+                List<String> keys = new ArrayList<>(SWEEP_SCRIPT_BUCKETS);
+                for (int j = i; j < i + SWEEP_SCRIPT_BUCKETS; j++) {
+                    keys.add(LOGIN_BUCKET_KEY + j);
+                }
+                stringRedisTemplate.execute(SESSION_SWEEP_SCRIPT, keys, now);
+            }
+            stringRedisTemplate.opsForValue().set(LOGIN_SWEEP_CURSOR_KEY,
+                    String.valueOf((begin + SWEEP_BATCH_SIZE) % BUCKET_COUNT));
+        } catch (Exception e) {
+            log.error("清理过期会话失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean isValid(String token) {
+        if (token.length() <= BUCKET_PREFIX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < BUCKET_PREFIX_LENGTH; i++) {
+            if (Character.digit(token.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String bucketKey(String token) {
+        return LOGIN_BUCKET_KEY + Integer.parseInt(token.substring(0, BUCKET_PREFIX_LENGTH), 16);
+    }
+
+    private static String field(String token) {
+        return token.substring(BUCKET_PREFIX_LENGTH);
+    }
+}
@@ -0,0 +1,232 @@
+package com.hmdp.utils;
+
+import com.hmdp.service.IFollowService;
+import com.hmdp.service.impl.FollowServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.FEED_BIG_AUTHOR_FANS;
+import static com.hmdp.utils.SystemConstants.FEED_INBOX_MAX_SIZE;
+
+// 博客发布后的异步推送：发布时只写一条消息到stream，后台线程分批遍历粉丝集合并写入收件箱
+// 大V(粉丝数超过阈值)的博客只写入其发件箱，由粉丝读取时拉取合并
+@Slf4j
+@Component
+public class FeedDispatcher {
+    private static final String GROUP = "g1";
+    private static final String CONSUMER = "c1";
+    // 消息最多投递的次数，超过后转入死信队列
+    private static final int MAX_DELIVERIES = 5;
+    // 每批推送的粉丝数量
+    private static final int CHUNK_SIZE = 500;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IFollowService followService;
+
+    private static final DefaultRedisScript<Long> FEED_PUSH_SCRIPT;
+
+    static {
+        FEED_PUSH_SCRIPT = new DefaultRedisScript<>();
+        FEED_PUSH_SCRIPT.setLocation(new ClassPathResource("feed_push.lua"));
+        FEED_PUSH_SCRIPT.setResultType(Long.class);
+    }
+
+    private final ExecutorService feedDispatchExecutor = Executors.newSingleThreadExecutor();
+    private volatile boolean running = true;
+
+    @PostConstruct
+    private void init() {
+        createGroupIfAbsent();
+        feedDispatchExecutor.submit(new FeedHandler());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        feedDispatchExecutor.shutdown();
+    }
+
+    // 发布推送任务
+    public void publish(Long blogId, Long authorId, long timestamp) {
+        Map<String, String> message = new HashMap<>();
+        message.put("blogId", blogId.toString());
+        message.put("authorId", authorId.toString());
+        message.put("timestamp", String.valueOf(timestamp));
+        stringRedisTemplate.opsForStream().add(FEED_STREAM_KEY, message);
+    }
+
+    private void createGroupIfAbsent() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.xGroupCreate(
+                    FEED_STREAM_KEY.getBytes(), GROUP, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            // 消费者组已存在
+            log.debug("消费者组已存在，{}", e.getMessage());
+        }
+    }
+
+    private class FeedHandler implements Runnable {
+        @Override
+        public void run() {
+            // 启动时先处理上次未完成的推送
+            handlePendingList();
+            while (running) {
+                try {
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(GROUP, CONSUMER),
+                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(FEED_STREAM_KEY, ReadOffset.lastConsumed())
+                    );
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    handleRecord(list.get(0));
+                } catch (Exception e) {
+                    log.error("推送博客异常", e);
+                    handlePendingList();
+                }
+            }
+        }
+
+        private void handlePendingList() {
+            while (running) {
+                MapRecord<String, Object, Object> record = null;
+                try {
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(GROUP, CONSUMER),
+                            StreamReadOptions.empty().count(1),
+                            StreamOffset.create(FEED_STREAM_KEY, ReadOffset.from("0"))
+                    );
+                    if (list == null || list.isEmpty()) {
+                        break;
+                    }
+                    record = list.get(0);
+                    handleRecord(record);
+                } catch (Exception e) {
+                    log.error("处理pending-list异常信息", e);
+                    // 多次投递仍失败的消息转入死信队列，避免阻塞后续消息
+                    if (record != null && deadLetterIfExhausted(record)) {
+                        continue;
+                    }
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // 消息的投递次数达到上限时转入死信stream并ACK，返回是否已转入
+    private boolean deadLetterIfExhausted(MapRecord<String, Object, Object> record) {
+        try {
+            String id = record.getId().getValue();
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(FEED_STREAM_KEY, GROUP, Range.closed(id, id), 1L);
+            if (pending.isEmpty() || pending.get(0).getTotalDeliveryCount() < MAX_DELIVERIES) {
+                return false;
+            }
+            Map<Object, Object> value = new HashMap<>(record.getValue());
+            value.put("sourceId", id);
+            stringRedisTemplate.opsForStream().add(FEED_DEAD_STREAM_KEY, value);
+            stringRedisTemplate.opsForStream().acknowledge(FEED_STREAM_KEY, GROUP, record.getId());
+            log.warn("推送消息多次失败，已转入死信队列，{}", record);
+            return true;
+        } catch (Exception e) {
+            log.error("转入死信队列失败", e);
+            return false;
+        }
+    }
+
+    // 处理完成后才ACK，中途宕机时消息留在pending-list中，重启后重新推送
+    private void handleRecord(MapRecord<String, Object, Object> record) {
+        Map<Object, Object> value = record.getValue();
+        Long blogId = Long.valueOf(value.get("blogId").toString());
+        Long authorId = Long.valueOf(value.get("authorId").toString());
+        long timestamp = Long.parseLong(value.get("timestamp").toString());
+        fanout(blogId, authorId, timestamp);
+        stringRedisTemplate.opsForStream().acknowledge(FEED_STREAM_KEY, GROUP, record.getId());
+    }
+
+    private void fanout(Long blogId, Long authorId, long timestamp) {
+        String member = blogId.toString();
+        // 大V只写自己的发件箱，粉丝读取时再合并。与收件箱使用同一个脚本：发件箱不存在时不写入，
+        // 由粉丝读取时从数据库重建，避免创建只有新博客的发件箱；写入后裁剪长度，更早的博客读取时从数据库查询
+        if (isBigAuthor(authorId)) {
+            List<String> keys = new ArrayList<>(1);
+            keys.add(FEED_OUTBOX_KEY + authorId);
+            push(keys, member, timestamp);
+            return;
+        }
+        // 1.SSCAN分批遍历粉丝集合。集合在遍历期间变化时SSCAN不保证顺序，无法按位置记录进度，
+        // 中途失败后重新处理时从头推送：ZADD相同成员和分数是幂等的，且走到这里的作者粉丝数不超过FEED_BIG_AUTHOR_FANS
+        followService.ensureFansLoaded(authorId);
+        ScanOptions options = ScanOptions.scanOptions().count(CHUNK_SIZE).build();
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(FANS_KEY + authorId, options)) {
+            List<String> keys = new ArrayList<>(CHUNK_SIZE);
+            while (cursor.hasNext()) {
+                String fan = cursor.next();
+                if (FollowServiceImpl.SENTINEL.equals(fan)) {
+                    continue;
+                }
+                keys.add(FEED_KEY + fan);
+                if (keys.size() >= CHUNK_SIZE) {
+                    push(keys, member, timestamp);
+                }
+            }
+            if (!keys.isEmpty()) {
+                push(keys, member, timestamp);
+            }
+        } catch (IOException e) {
+            log.error("关闭SSCAN游标失败", e);
+        }
+    }
+
+    // 2.一次脚本调用写入本批粉丝的收件箱(或大V的发件箱)，并裁剪长度
+    private void push(List<String> keys, String member, long timestamp) {
+        stringRedisTemplate.execute(FEED_PUSH_SCRIPT, keys,
+                member, String.valueOf(timestamp), String.valueOf(FEED_INBOX_MAX_SIZE));
+        keys.clear();
+    }
+
+    private boolean isBigAuthor(Long authorId) {
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(FEED_BIG_AUTHOR_KEY, authorId.toString()))) {
+            return true;
+        }
+        if (followService.countFans(authorId) < FEED_BIG_AUTHOR_FANS) {
+            return false;
+        }
+        // 一旦成为大V不再回退，避免同一作者的博客在收件箱和发件箱之间来回切换
+        // 删除可能残留的发件箱，粉丝读取时从数据库重建，包含成为大V之前发布的博客
+        Long added = stringRedisTemplate.opsForSet().add(FEED_BIG_AUTHOR_KEY, authorId.toString());
+        if (added != null && added > 0) {
+            stringRedisTemplate.delete(FEED_OUTBOX_KEY + authorId);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,251 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.IntConsumer;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.hmdp.utils.RedisConstants.FOLLOW_EVENT_CHANNEL;
+
+// 本机内存中的关注关系图：每个用户的关注列表、粉丝列表用压缩位图(RoaringBitmap)保存，
+// 启动时从tb_follow分批加载，之后通过redis频道接收关注事件增量更新。通过hmdp.follow-graph.enabled开启
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.follow-graph.enabled", havingValue = "true")
+public class FollowGraph {
+    // 加载时每批读取的关注记录数量
+    private static final int LOAD_BATCH_SIZE = 10000;
+    // 推荐时最多展开的关注人数量，避免关注了大量用户的账号计算过慢
+    private static final int RECOMMEND_MAX_EXPAND = 500;
+
+    @Resource
+    private FollowMapper followMapper;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 用户id -> 关注的用户id
+    private final Map<Integer, RoaringBitmap> followees = new HashMap<>();
+    // 用户id -> 粉丝id
+    private final Map<Integer, RoaringBitmap> fans = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService graphLoadExecutor = Executors.newSingleThreadExecutor();
+    // 首次加载完成前不提供查询，调用方回退到redis
+    private volatile boolean ready = false;
+
+    @PostConstruct
+    private void init() {
+        // 先订阅事件再加载，加载期间的变化不会丢失
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                onEvent(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(FOLLOW_EVENT_CHANNEL));
+        graphLoadExecutor.submit(() -> {
+            try {
+                long edges = load();
+                ready = true;
+                log.info("关注关系图加载完成，共{}个用户，{}条关注关系", followees.size(), edges);
+            } catch (Exception e) {
+                log.error("关注关系图加载失败", e);
+            }
+        });
+    }
+
+    @PreDestroy
+    private void destroy() {
+        graphLoadExecutor.shutdownNow();
+    }
+
+    // 按主键分批读取tb_follow
+    private long load() {
+        long lastId = 0;
+        long edges = 0;
+        while (true) {
+            List<Follow> follows = followMapper.selectList(new QueryWrapper<Follow>()
+                    .select("id", "user_id", "follow_user_id")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + LOAD_BATCH_SIZE));
+            if (follows.isEmpty()) {
+                break;
+            }
+            lock.writeLock().lock();
+            try {
+                for (Follow follow : follows) {
+                    addEdge(toInt(follow.getUserId()), toInt(follow.getFollowUserId()));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            edges += follows.size();
+            lastId = follows.get(follows.size() - 1).getId();
+        }
+        // 加载完成后压缩位图
+        lock.writeLock().lock();
+        try {
+            followees.values().forEach(RoaringBitmap::runOptimize);
+            fans.values().forEach(RoaringBitmap::runOptimize);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return edges;
+    }
+
+    // 关注事件，格式为 userId,followUserId,1关注/0取关
+    private void onEvent(String message) {
+        String[] parts = message.split(",");
+        if (parts.length != 3) {
+            return;
+        }
+        int userId = toInt(Long.valueOf(parts[0]));
+        int followUserId = toInt(Long.valueOf(parts[1]));
+        lock.writeLock().lock();
+        try {
+            if ("1".equals(parts[2])) {
+                addEdge(userId, followUserId);
+            } else {
+                removeEdge(userId, followUserId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // 共同关注
+    public List<Long> commonFollows(Long userId, Long otherId) {
+        lock.readLock().lock();
+        try {
+            RoaringBitmap a = followees.get(toInt(userId));
+            RoaringBitmap b = followees.get(toInt(otherId));
+            if (a == null || b == null) {
+                return Collections.emptyList();
+            }
+            return toList(RoaringBitmap.and(a, b));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 共同关注数量，不生成交集结果
+    public int commonFollowCount(Long userId, Long otherId) {
+        lock.readLock().lock();
+        try {
+            RoaringBitmap a = followees.get(toInt(userId));
+            RoaringBitmap b = followees.get(toInt(otherId));
+            if (a == null || b == null) {
+                return 0;
+            }
+            return RoaringBitmap.andCardinality(a, b);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 可能认识的人：统计"我关注的人"所关注的用户，以及关注了我但我未回关的用户，
+     * 排除自己和已关注的用户，按出现次数取前k个
+     * @param userId 用户id
+     * @param k 推荐数量
+     * @return 推荐的用户id，按共同关注次数倒序
+     */
+    public List<Long> recommend(Long userId, int k) {
+        int self = toInt(userId);
+        Map<Integer, Integer> counts = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            RoaringBitmap mine = followees.get(self);
+            if (mine == null || mine.isEmpty()) {
+                return Collections.emptyList();
+            }
+            IntIterator it = mine.getIntIterator();
+            for (int i = 0; i < RECOMMEND_MAX_EXPAND && it.hasNext(); i++) {
+                RoaringBitmap theirs = followees.get(it.next());
+                if (theirs == null) {
+                    continue;
+                }
+                // 差集去掉已关注的用户
+                IntIterator candidates = RoaringBitmap.andNot(theirs, mine).getIntIterator();
+                while (candidates.hasNext()) {
+                    int candidate = candidates.next();
+                    if (candidate != self) {
+                        counts.merge(candidate, 1, Integer::sum);
+                    }
+                }
+            }
+            // 关注了我但我未回关的用户
+            RoaringBitmap myFans = fans.get(self);
+            if (myFans != null) {
+                IntIterator candidates = RoaringBitmap.andNot(myFans, mine).getIntIterator();
+                while (candidates.hasNext()) {
+                    counts.merge(candidates.next(), 1, Integer::sum);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        // 小顶堆取前k个
+        PriorityQueue<Map.Entry<Integer, Integer>> heap = new PriorityQueue<>(
+                Comparator.<Map.Entry<Integer, Integer>>comparingInt(Map.Entry::getValue)
+                        .thenComparing(Map.Entry::getKey, Comparator.reverseOrder()));
+        for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+            heap.offer(entry);
+            if (heap.size() > k) {
+                heap.poll();
+            }
+        }
+        List<Long> result = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            result.add(Integer.toUnsignedLong(heap.poll().getKey()));
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    private void addEdge(int userId, int followUserId) {
+        followees.computeIfAbsent(userId, key -> new RoaringBitmap()).add(followUserId);
+        fans.computeIfAbsent(followUserId, key -> new RoaringBitmap()).add(userId);
+    }
+
+    private void removeEdge(int userId, int followUserId) {
+        RoaringBitmap bitmap = followees.get(userId);
+        if (bitmap != null) {
+            bitmap.remove(followUserId);
+        }
+        bitmap = fans.get(followUserId);
+        if (bitmap != null) {
+            bitmap.remove(userId);
+        }
+    }
+
+    private static List<Long> toList(RoaringBitmap bitmap) {
+        List<Long> ids = new ArrayList<>(bitmap.getCardinality());
+        bitmap.forEach((IntConsumer) id -> ids.add(Integer.toUnsignedLong(id)));
+        return ids;
+    }
+
+    // 用户id按无符号32位整数保存
+    private static int toInt(Long id) {
+        if (id < 0 || id > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException("用户id超出范围：" + id);
+        }
+        return (int) id.longValue();
+    }
+}
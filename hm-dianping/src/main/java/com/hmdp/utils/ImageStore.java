@@ -0,0 +1,215 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+// 按内容寻址的图片存储：文件名为内容的SHA-256，相同图片只保存一份，按哈希前两级分目录
+// 每次上传引用计数+1，并记录在上传用户名下；用户只能释放自己上传过的引用，计数归零的图片延迟一段时间后由定时任务删除，期间再次上传则不会被删除
+@Slf4j
+@Component
+public class ImageStore {
+    // 允许上传的图片类型
+    private static final Set<String> ALLOWED_SUFFIXES = CollUtil.newHashSet(
+            "jpg", "jpeg", "png", "gif", "webp");
+    // 合法的图片名称：/blogs/ab/cd/<sha256>.<后缀>
+    private static final Pattern NAME_PATTERN = Pattern.compile("^/blogs/[0-9a-f]{2}/[0-9a-f]{2}/[0-9a-f]{64}\\.[a-z]+$");
+    // 缩略图名称：/blogs/ab/cd/<sha256>_<规格>.jpg
+    private static final Pattern VARIANT_PATTERN = Pattern.compile("^/blogs/[0-9a-f]{2}/[0-9a-f]{2}/[0-9a-f]{64}_[a-z]+\\.jpg$");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // 每次回收的图片数量
+    private static final int GC_BATCH_SIZE = 100;
+
+    private static final DefaultRedisScript<Long> IMAGE_RELEASE_SCRIPT;
+
+    static {
+        IMAGE_RELEASE_SCRIPT = new DefaultRedisScript<>();
+        IMAGE_RELEASE_SCRIPT.setLocation(new ClassPathResource("image_release.lua"));
+        IMAGE_RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedissonClient redissonClient;
+
+    // 图片根目录
+    @Value("${hmdp.image.root:/var/lib/hmdp/imgs}")
+    private String rootDir;
+    private Path root;
+    private Path tmpDir;
+
+    @PostConstruct
+    private void init() throws IOException {
+        root = Paths.get(rootDir).toAbsolutePath().normalize();
+        tmpDir = root.resolve("tmp");
+        Files.createDirectories(tmpDir);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public Path getTmpDir() {
+        return tmpDir;
+    }
+
+    /**
+     * 保存上传的图片
+     * @param in 图片内容
+     * @param originalFilename 原始文件名，用于获取后缀
+     * @param userId 上传的用户，只有上传过的用户才能释放引用
+     * @return 图片名称，例如 /blogs/ab/cd/<sha256>.jpg
+     */
+    public String store(InputStream in, String originalFilename, Long userId) throws IOException {
+        String suffix = StrUtil.subAfter(originalFilename, ".", true);
+        if (suffix == null || !ALLOWED_SUFFIXES.contains(suffix.toLowerCase())) {
+            throw new IllegalArgumentException("不支持的图片类型");
+        }
+        suffix = suffix.toLowerCase();
+        // 1.边写入临时文件边计算哈希，不把整个文件读入内存
+        Path tmp = Files.createTempFile(tmpDir, "upload", ".tmp");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            try (ReadableByteChannel source = Channels.newChannel(in);
+                 FileChannel target = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (source.read(buffer) != -1) {
+                    buffer.flip();
+                    digest.update(buffer.duplicate());
+                    while (buffer.hasRemaining()) {
+                        target.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
+            String hash = HexUtil.encodeHexStr(digest.digest());
+            String name = StrUtil.format("/blogs/{}/{}/{}.{}", hash.substring(0, 2), hash.substring(2, 4), hash, suffix);
+            // 2.增加引用计数，文件不存在时才移动到目标位置
+            RLock lock = redissonClient.getLock(IMAGE_LOCK_KEY + hash);
+            lock.lock();
+            try {
+                stringRedisTemplate.opsForHash().increment(IMAGE_REF_KEY, name, 1);
+                stringRedisTemplate.opsForHash().increment(IMAGE_OWNER_KEY + userId, name, 1);
+                Path target = resolve(name);
+                if (!Files.exists(target)) {
+                    Files.createDirectories(target.getParent());
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } finally {
+                lock.unlock();
+            }
+            return name;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 释放用户的一次引用，计数归零时加入待回收队列
+     * 计数的检查和扣减在lua脚本中完成，不需要加锁：回收任务在锁内重新检查计数
+     * @return 名称不合法或该用户没有未释放的引用时返回false
+     */
+    public boolean release(String name, Long userId) {
+        if (!isValidName(name)) {
+            return false;
+        }
+        Long result = stringRedisTemplate.execute(IMAGE_RELEASE_SCRIPT,
+                Arrays.asList(IMAGE_OWNER_KEY + userId, IMAGE_REF_KEY, IMAGE_GC_KEY),
+                name, String.valueOf(System.currentTimeMillis()));
+        return result != null && result >= 0;
+    }
+
+    public boolean isValidName(String name) {
+        return name != null && NAME_PATTERN.matcher(name).matches();
+    }
+
+    public boolean isValidVariantName(String name) {
+        return name != null && VARIANT_PATTERN.matcher(name).matches()
+                && ImageVariant.ofSuffix(name.substring(name.lastIndexOf('_'), name.lastIndexOf('.'))) != null;
+    }
+
+    // 根据缩略图名称查找原图名称，原图不存在时返回null
+    public String findOriginal(String variantName) {
+        String base = variantName.substring(0, variantName.lastIndexOf('_'));
+        for (String suffix : ALLOWED_SUFFIXES) {
+            String name = base + "." + suffix;
+            if (Files.exists(resolve(name))) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    // 图片名称对应的文件路径
+    public Path resolve(String name) {
+        return root.resolve(name.substring(1));
+    }
+
+    // 原图的指定规格名称，例如 /blogs/ab/cd/<sha256>_thumb.jpg
+    public String variantName(String name, ImageVariant variant) {
+        return name.substring(0, name.lastIndexOf('.')) + variant.getSuffix() + ".jpg";
+    }
+
+    // 回收引用计数归零超过IMAGE_GC_DELAY分钟的图片
+    @Scheduled(fixedDelay = 60000)
+    public void gc() {
+        long max = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(IMAGE_GC_DELAY);
+        Set<String> names = stringRedisTemplate.opsForZSet().rangeByScore(IMAGE_GC_KEY, 0, max, 0, GC_BATCH_SIZE);
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            String hash = name.substring(name.lastIndexOf('/') + 1, name.lastIndexOf('.'));
+            RLock lock = redissonClient.getLock(IMAGE_LOCK_KEY + hash);
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                // 等待期间再次被上传的图片不删除
+                Object count = stringRedisTemplate.opsForHash().get(IMAGE_REF_KEY, name);
+                if (count == null || Long.parseLong(count.toString()) <= 0) {
+                    Files.deleteIfExists(resolve(name));
+                    for (ImageVariant variant : ImageVariant.values()) {
+                        Files.deleteIfExists(resolve(variantName(name, variant)));
+                    }
+                    stringRedisTemplate.opsForHash().delete(IMAGE_REF_KEY, name);
+                }
+                stringRedisTemplate.opsForZSet().remove(IMAGE_GC_KEY, name);
+            } catch (IOException e) {
+                log.error("删除图片失败，{}", name, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// 上传后异步生成各规格的缩略图，写在原图旁边
+// 使用固定线程数和有界队列，队列满时丢弃任务，缺少的规格由图片接口回退为原图
+@Slf4j
+@Component
+public class ImageThumbnailer {
+    // 超过该像素数的图片不处理，避免解码占用过多内存
+    private static final long MAX_PIXELS = 50_000_000L;
+
+    @Resource
+    private ImageStore imageStore;
+
+    private final ThreadPoolExecutor thumbnailExecutor = new ThreadPoolExecutor(
+            2, 2, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1000),
+            (r, executor) -> log.warn("缩略图任务队列已满，丢弃任务"));
+
+    @PreDestroy
+    private void destroy() {
+        thumbnailExecutor.shutdown();
+    }
+
+    // 提交生成任务，已存在的规格会被跳过
+    public void submit(String name) {
+        thumbnailExecutor.execute(() -> {
+            for (ImageVariant variant : ImageVariant.values()) {
+                try {
+                    generate(name, variant);
+                } catch (Exception e) {
+                    log.error("生成缩略图失败，{}{}", name, variant.getSuffix(), e);
+                }
+            }
+        });
+    }
+
+    private void generate(String name, ImageVariant variant) throws IOException {
+        Path source = imageStore.resolve(name);
+        Path target = imageStore.resolve(imageStore.variantName(name, variant));
+        if (Files.exists(target) || !Files.exists(source)) {
+            return;
+        }
+        // 1.读取原图，大图按目标尺寸降采样读取，减少内存占用
+        BufferedImage image = read(source, variant);
+        if (image == null) {
+            return;
+        }
+        // 2.缩放
+        BufferedImage scaled = resize(image, variant);
+        // 3.先写临时文件再移动，避免读取到写了一半的文件
+        Path tmp = Files.createTempFile(imageStore.getTmpDir(), "thumb", ".tmp");
+        try {
+            writeJpeg(scaled, tmp, variant.getQuality());
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private BufferedImage read(Path source, ImageVariant variant) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_PIXELS) {
+                    log.warn("图片尺寸过大，不生成缩略图，{}x{}", width, height);
+                    return null;
+                }
+                // 降采样后的尺寸仍不小于目标尺寸
+                int step = width / variant.getWidth();
+                if (variant.getHeight() > 0) {
+                    step = Math.min(step, height / variant.getHeight());
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // 指定了高度时按比例缩放后居中裁剪，否则只限制宽度，小图不放大
+    private static BufferedImage resize(BufferedImage image, ImageVariant variant) {
+        int srcWidth = image.getWidth();
+        int srcHeight = image.getHeight();
+        int width;
+        int height;
+        double scale;
+        if (variant.getHeight() > 0) {
+            width = Math.min(variant.getWidth(), srcWidth);
+            height = Math.min(variant.getHeight(), srcHeight);
+            scale = Math.max((double) width / srcWidth, (double) height / srcHeight);
+        } else {
+            scale = Math.min(1.0, (double) variant.getWidth() / srcWidth);
+            width = (int) Math.round(srcWidth * scale);
+            height = (int) Math.round(srcHeight * scale);
+        }
+        int scaledWidth = (int) Math.round(srcWidth * scale);
+        int scaledHeight = (int) Math.round(srcHeight * scale);
+        BufferedImage result = new BufferedImage(Math.max(width, 1), Math.max(height, 1), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = result.createGraphics();
+        try {
+            // JPEG不支持透明，透明部分填充白色
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, result.getWidth(), result.getHeight());
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, (result.getWidth() - scaledWidth) / 2, (result.getHeight() - scaledHeight) / 2,
+                    scaledWidth, scaledHeight, null);
+        } finally {
+            g.dispose();
+        }
+        return result;
+    }
+
+    private static void writeJpeg(BufferedImage image, Path target, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
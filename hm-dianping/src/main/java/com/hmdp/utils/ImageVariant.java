@@ -0,0 +1,48 @@
+package com.hmdp.utils;
+
+// 图片尺寸规格：在原图名称后加后缀，例如 <sha256>_thumb.jpg，统一输出为JPEG
+public enum ImageVariant {
+    // 列表卡片使用的缩略图，裁剪为正方形
+    THUMB("_thumb", 200, 200, 0.75f),
+    // 详情页使用的中图，限制宽度
+    MEDIUM("_m", 750, 0, 0.8f);
+
+    private final String suffix;
+    // 目标宽高，高度为0时按宽度等比缩放
+    private final int width;
+    private final int height;
+    private final float quality;
+
+    ImageVariant(String suffix, int width, int height, float quality) {
+        this.suffix = suffix;
+        this.width = width;
+        this.height = height;
+        this.quality = quality;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public float getQuality() {
+        return quality;
+    }
+
+    // 根据后缀查找规格，不存在时返回null
+    public static ImageVariant ofSuffix(String suffix) {
+        for (ImageVariant variant : values()) {
+            if (variant.suffix.equals(suffix)) {
+                return variant;
+            }
+        }
+        return null;
+    }
+}
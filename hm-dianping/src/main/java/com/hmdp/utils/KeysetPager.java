@@ -0,0 +1,99 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.hmdp.dto.CursorResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Function;
+
+// keyset(seek)分页：以上一页最后一条记录的(排序字段, id)作为游标，用WHERE代替OFFSET，且不查询总数
+// 翻到第500页与第1页的代价相同
+public class KeysetPager {
+    private static final String SEPARATOR = ":";
+
+    // 按id排序分页
+    public static <T> CursorResult page(QueryChainWrapper<T> query, Function<T, Long> idGetter,
+                                        boolean desc, String cursor, int size) {
+        return page(query, null, null, idGetter, desc, cursor, size);
+    }
+
+    /**
+     * 按(sortColumn, id)排序分页
+     * @param query 查询条件
+     * @param sortColumn 排序字段，为null时只按id排序
+     * @param sortGetter 从记录中获取排序字段的值
+     * @param idGetter 从记录中获取id
+     * @param desc 是否倒序
+     * @param cursor 上一页返回的游标，为空时查询第一页
+     * @param size 每页数量
+     * @return 当前页数据及下一页游标
+     */
+    public static <T> CursorResult page(QueryChainWrapper<T> query, String sortColumn, Function<T, ?> sortGetter,
+                                        Function<T, Long> idGetter, boolean desc, String cursor, int size) {
+        // 1.解析游标，拼接seek条件
+        String[] parts = decode(cursor);
+        if (parts != null) {
+            Long lastId = Long.valueOf(parts[parts.length - 1]);
+            if (sortColumn == null) {
+                if (desc) {
+                    query.lt("id", lastId);
+                } else {
+                    query.gt("id", lastId);
+                }
+            } else {
+                String lastValue = parts[0];
+                // (sort < v) OR (sort = v AND id < lastId)
+                query.and(w -> {
+                    if (desc) {
+                        w.lt(sortColumn, lastValue).or(o -> o.eq(sortColumn, lastValue).lt("id", lastId));
+                    } else {
+                        w.gt(sortColumn, lastValue).or(o -> o.eq(sortColumn, lastValue).gt("id", lastId));
+                    }
+                });
+            }
+        }
+        // 2.排序，多查一条用于判断是否还有下一页
+        if (sortColumn != null) {
+            query.orderBy(true, !desc, sortColumn);
+        }
+        query.orderBy(true, !desc, "id");
+        List<T> records = query.last("LIMIT " + (size + 1)).list();
+        // 3.生成下一页游标
+        if (records.size() <= size) {
+            return new CursorResult(records, null);
+        }
+        records = records.subList(0, size);
+        T last = records.get(size - 1);
+        String next = sortColumn == null
+                ? encode(idGetter.apply(last))
+                : encode(sortGetter.apply(last), idGetter.apply(last));
+        return new CursorResult(records, next);
+    }
+
+    // 将若干值编码为不透明的游标
+    public static String encode(Object... values) {
+        String raw = StrUtil.join(SEPARATOR, values);
+        return Base64.encodeUrlSafe(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // 解析游标，为空时返回null
+    public static String[] decode(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        try {
+            String raw = Base64.decodeStr(cursor, StandardCharsets.UTF_8);
+            // id总是最后一段，排序字段的值中可能包含分隔符
+            int index = raw.lastIndexOf(SEPARATOR);
+            if (index < 0) {
+                return new String[]{raw};
+            }
+            return new String[]{raw.substring(0, index), raw.substring(index + 1)};
+        } catch (Exception e) {
+            throw new IllegalArgumentException("错误的分页游标");
+        }
+    }
+}
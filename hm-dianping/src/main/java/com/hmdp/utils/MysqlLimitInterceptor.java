@@ -0,0 +1,46 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.exceptions.ExceptionUtil;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+
+// 数据库调用的自适应并发限制，每条sql作为一次调用，超时或获取连接失败时降低限制
+@Intercepts({
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class})
+})
+public class MysqlLimitInterceptor implements Interceptor {
+    private final AdaptiveLimiter limiter;
+
+    public MysqlLimitInterceptor(AdaptiveLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        long start = limiter.acquire();
+        boolean dropped = false;
+        try {
+            return invocation.proceed();
+        } catch (Throwable e) {
+            dropped = ExceptionUtil.isCausedBy(e, SQLTransientException.class, SQLRecoverableException.class);
+            throw e;
+        } finally {
+            limiter.release(start, dropped);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.hmdp.utils;
+
+// 下游并发调用数达到自适应限制时抛出，请求立即失败，由WebExceptionAdvice转换为失败结果
+public class OverloadException extends RuntimeException {
+    public OverloadException(String downstream) {
+        super(downstream + "调用数已达上限");
+    }
+}
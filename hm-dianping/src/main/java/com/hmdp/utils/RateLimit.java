@@ -0,0 +1,38 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 接口限流，依次检查：本地每个用户的令牌桶、本地每个资源的令牌桶、集群每个资源的每秒预算
+ * 超出限制时抛出RateLimitException，请求不会进入方法
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimit {
+    // 限流名称，例如 seckill
+    String key();
+
+    // 区分资源的方法参数名，例如 voucherId，为空时整个接口共用一个限额
+    String param() default "";
+
+    // 本实例每个资源每秒的请求数，0表示不限制
+    double permitsPerSecond() default 0;
+
+    // 本实例每个资源的令牌桶容量，0表示与每秒请求数相同
+    int burst() default 0;
+
+    // 本实例每个用户每个资源每秒的请求数，0表示不限制
+    double userPermitsPerSecond() default 0;
+
+    // 每个用户的令牌桶容量，0表示与每秒请求数相同
+    int userBurst() default 0;
+
+    // 集群每个资源每秒的请求数，0表示不限制
+    long clusterPermitsPerSecond() default 0;
+
+    // 超出限制时的提示
+    String message() default "请求过于频繁，请稍后再试";
+}
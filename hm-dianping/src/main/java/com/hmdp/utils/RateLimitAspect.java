@@ -0,0 +1,183 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Before;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+// 处理@RateLimit：本地令牌桶拦截单个用户和单个实例的超额请求，不访问redis
+// 通过本地检查后再从redis租用集群预算，每次租用一批令牌在本地消耗，减少对redis的访问
+@Slf4j
+@Aspect
+@Component
+public class RateLimitAspect {
+    // 本地保存的令牌桶数量，超出时淘汰最久未使用的
+    private static final int BUCKET_CACHE_SIZE = 100000;
+    private static final int LEASE_CACHE_SIZE = 10000;
+    // 每次租用每秒预算的几分之一
+    private static final int LEASE_DIVISOR = 20;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static final DefaultRedisScript<Long> RATE_LIMIT_SCRIPT;
+
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rate_limit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    private final LRUCache<String, TokenBucket> buckets = CacheUtil.newLRUCache(BUCKET_CACHE_SIZE);
+    private final LRUCache<String, ClusterLease> leases = CacheUtil.newLRUCache(LEASE_CACHE_SIZE);
+
+    // 从集群预算租到的令牌，只在租用时所在的那一秒内有效
+    private static class ClusterLease {
+        long second;
+        long remaining;
+        // 本秒集群预算已用完，不再访问redis
+        boolean exhausted;
+        // 本秒租用失败，剩余时间内只依赖本地限流，不再访问redis
+        boolean failed;
+        // 正在进行的租用，同一时刻只有一个线程访问redis，其他线程等待其结果
+        CompletableFuture<Void> fetching;
+    }
+
+    @Before("@annotation(rateLimit)")
+    public void limit(JoinPoint joinPoint, RateLimit rateLimit) {
+        String resource = rateLimit.key() + ":" + resolveParam(joinPoint, rateLimit.param());
+        // 1.每个用户
+        UserDTO user = UserHolder.getUser();
+        TokenBucket userBucket = null;
+        if (rateLimit.userPermitsPerSecond() > 0 && user != null) {
+            String key = resource + ":" + user.getId();
+            userBucket = buckets.get(key, true,
+                    () -> new TokenBucket(rateLimit.userPermitsPerSecond(), rateLimit.userBurst()));
+            if (!userBucket.tryAcquire()) {
+                throw new RateLimitException(rateLimit.message());
+            }
+        }
+        // 2.本实例每个资源，被拒绝时退还用户的令牌，避免流量高峰时正常用户的突发额度被白白消耗
+        TokenBucket resourceBucket = null;
+        if (rateLimit.permitsPerSecond() > 0) {
+            resourceBucket = buckets.get(resource, true,
+                    () -> new TokenBucket(rateLimit.permitsPerSecond(), rateLimit.burst()));
+            if (!resourceBucket.tryAcquire()) {
+                refund(userBucket);
+                throw new RateLimitException(rateLimit.message());
+            }
+        }
+        // 3.集群每个资源，被拒绝时同样退还前面取得的令牌
+        if (rateLimit.clusterPermitsPerSecond() > 0 && !tryAcquireCluster(resource, rateLimit.clusterPermitsPerSecond())) {
+            refund(userBucket);
+            refund(resourceBucket);
+            throw new RateLimitException(rateLimit.message());
+        }
+    }
+
+    private static void refund(TokenBucket bucket) {
+        if (bucket != null) {
+            bucket.refund();
+        }
+    }
+
+    private boolean tryAcquireCluster(String resource, long permitsPerSecond) {
+        ClusterLease lease = leases.get(resource, true, ClusterLease::new);
+        while (true) {
+            long second = System.currentTimeMillis() / 1000;
+            CompletableFuture<Void> fetching;
+            boolean leader = false;
+            synchronized (lease) {
+                // 1.进入新的一秒，上一秒未用完的令牌作废
+                if (lease.second != second) {
+                    lease.second = second;
+                    lease.remaining = 0;
+                    lease.exhausted = false;
+                    lease.failed = false;
+                    lease.fetching = null;
+                }
+                if (lease.remaining > 0) {
+                    lease.remaining--;
+                    return true;
+                }
+                if (lease.exhausted) {
+                    return false;
+                }
+                // redis不可用时只依赖本地限流
+                if (lease.failed) {
+                    return true;
+                }
+                // 2.本地令牌用完，由第一个线程从redis租用下一批
+                if (lease.fetching == null) {
+                    lease.fetching = new CompletableFuture<>();
+                    leader = true;
+                }
+                fetching = lease.fetching;
+            }
+            // 3.在锁外访问redis，其他线程等待租用完成后重新尝试
+            if (leader) {
+                fetchLease(resource, lease, second, permitsPerSecond, fetching);
+            } else {
+                fetching.join();
+            }
+        }
+    }
+
+    private void fetchLease(String resource, ClusterLease lease, long second, long permitsPerSecond,
+                            CompletableFuture<Void> fetching) {
+        long batch = Math.max(1, permitsPerSecond / LEASE_DIVISOR);
+        Long granted = null;
+        boolean failed = false;
+        try {
+            granted = stringRedisTemplate.execute(RATE_LIMIT_SCRIPT,
+                    Collections.singletonList(RATE_LIMIT_KEY + resource + ":" + second),
+                    String.valueOf(permitsPerSecond), String.valueOf(batch));
+        } catch (Exception e) {
+            log.error("租用集群限流令牌失败，{}", resource, e);
+            failed = true;
+        }
+        synchronized (lease) {
+            // 租用期间已进入新的一秒时丢弃结果
+            if (lease.second == second) {
+                if (failed) {
+                    lease.failed = true;
+                } else if (granted == null || granted <= 0) {
+                    lease.exhausted = true;
+                } else {
+                    lease.remaining += granted;
+                }
+            }
+            if (lease.fetching == fetching) {
+                lease.fetching = null;
+            }
+        }
+        fetching.complete(null);
+    }
+
+    private static String resolveParam(JoinPoint joinPoint, String param) {
+        if (param.isEmpty()) {
+            return "all";
+        }
+        String[] names = ((MethodSignature) joinPoint.getSignature()).getParameterNames();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(param)) {
+                return String.valueOf(joinPoint.getArgs()[i]);
+            }
+        }
+        throw new IllegalStateException("@RateLimit参数不存在：" + param);
+    }
+}
@@ -0,0 +1,8 @@
+package com.hmdp.utils;
+
+// 请求超出限流时抛出，由WebExceptionAdvice转换为失败结果
+public class RateLimitException extends RuntimeException {
+    public RateLimitException(String message) {
+        super(message);
+    }
+}
@@ -5,6 +5,13 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 30L;
+    public static final Long LOGIN_USER_REFRESH_THRESHOLD = 20L;
+    public static final Long LOGIN_LOCAL_TTL = 10L;
+    public static final Long LOGIN_SIGNED_TTL = 24L;
+    public static final String LOGIN_BUCKET_KEY = "login:bucket:";
+    public static final String LOGIN_SWEEP_CURSOR_KEY = "login:sweep:cursor";
+    public static final String LOGIN_REVOKED_KEY = "login:revoked";
+    public static final String LOGIN_REVOKE_CHANNEL = "login:revoke";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
@@ -12,12 +19,53 @@ public class RedisConstants {
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shop_type";
 
+    public static final String CACHE_USER_KEY = "cache:user:profile:";
+    public static final String CACHE_USER_INFO_KEY = "cache:user:info:";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final Long CACHE_USER_LOCAL_TTL = 10L;
+    public static final String CACHE_USER_INVALIDATE_CHANNEL = "cache:user:invalidate";
+
+    public static final String CACHE_BLOG_COMMENTS_KEY = "cache:blog:comments:";
+    public static final Long CACHE_BLOG_COMMENTS_TTL = 10L;
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_EXPIRE_KEY = "seckill:expire:";
+    public static final String SECKILL_BUYER_KEY = "seckill:buyer:";
+    public static final Long SECKILL_KEEP_DAYS = 1L;
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_DELTA_KEY = "blog:liked:delta";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_HOT_REBUILDING_KEY = "blog:hot:rebuilding";
+    public static final String BLOG_HOT_PENDING_KEY = "blog:hot:pending";
+    public static final Long BLOG_HOT_REBUILD_TTL = 10L;
+    public static final String BLOG_COMMENTS_DELTA_KEY = "blog:comments:delta";
     public static final String FEED_KEY = "feed:";
+    public static final Long FEED_TTL = 30L;
+    public static final String FEED_OUTBOX_KEY = "feed:out:";
+    public static final String FEED_BIG_AUTHOR_KEY = "feed:big";
+    public static final String FEED_STREAM_KEY = "stream.feed";
+    public static final String FEED_DEAD_STREAM_KEY = "stream.feed.dead";
+    public static final String FOLLOW_KEY = "follow:";
+    public static final String FANS_KEY = "fans:";
+    public static final String FOLLOW_EVENT_CHANNEL = "follow:events";
+    public static final String USER_FOLLOWEE_DELTA_KEY = "user:followee:delta";
+    public static final String USER_FANS_DELTA_KEY = "user:fans:delta";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
+
+    public static final String IMAGE_REF_KEY = "image:ref";
+    public static final String IMAGE_OWNER_KEY = "image:owner:";
+    public static final String IMAGE_GC_KEY = "image:gc";
+    public static final String IMAGE_LOCK_KEY = "lock:image:";
+    public static final Long IMAGE_GC_DELAY = 10L;
+
+    public static final String RATE_LIMIT_KEY = "limit:";
+
+    public static final String UV_SHOP_KEY = "uv:shop:";
+    public static final String UV_BLOG_KEY = "uv:blog:";
+    public static final Long UV_DAY_TTL = 62L;
+    public static final Long UV_MERGE_TTL = 10L;
 }
@@ -0,0 +1,113 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.collection.CollUtil;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Set;
+
+// 为RedisConnectionFactory创建的连接加上自适应并发限制，StringRedisTemplate等所有使用该工厂的调用都会经过限制
+// 每个命令作为一次调用，pipeline中的命令只在closePipeline时计为一次；订阅、阻塞读取等不代表下游响应时间的调用不限制
+// 注意：redisson使用独立的连接，不受此限制
+public class RedisLimitPostProcessor implements BeanPostProcessor {
+    // 不访问redis或不应计入响应时间的方法
+    private static final Set<String> EXEMPT_METHODS = CollUtil.newHashSet(
+            "close", "isClosed", "getNativeConnection", "isQueueing", "isPipelined", "openPipeline",
+            "multi", "discard", "watch", "unwatch", "getSentinelConnection",
+            "subscribe", "pSubscribe", "getSubscription", "isSubscribed",
+            "bLPop", "bRPop", "bRPopLPush", "bZPopMin", "bZPopMax");
+
+    private final ObjectProvider<AdaptiveLimiter> limiterProvider;
+
+    public RedisLimitPostProcessor(ObjectProvider<AdaptiveLimiter> limiterProvider) {
+        this.limiterProvider = limiterProvider;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof RedisConnectionFactory)) {
+            return bean;
+        }
+        AdaptiveLimiter limiter = limiterProvider.getObject();
+        // 保留原工厂实现的所有接口，只替换获取连接的方法
+        return newProxy(bean, (proxy, method, args) -> {
+            Object result = invoke(bean, method, args);
+            if (result instanceof RedisConnection
+                    && ("getConnection".equals(method.getName()) || "getClusterConnection".equals(method.getName()))) {
+                return newProxy(result, new LimitedConnection((RedisConnection) result, limiter));
+            }
+            return result;
+        });
+    }
+
+    private static class LimitedConnection implements InvocationHandler {
+        private final RedisConnection connection;
+        private final AdaptiveLimiter limiter;
+
+        LimitedConnection(RedisConnection connection, AdaptiveLimiter limiter) {
+            this.connection = connection;
+            this.limiter = limiter;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (isExempt(method, args)) {
+                return RedisLimitPostProcessor.invoke(connection, method, args);
+            }
+            long start = limiter.acquire();
+            boolean dropped = false;
+            try {
+                return RedisLimitPostProcessor.invoke(connection, method, args);
+            } catch (QueryTimeoutException | RedisConnectionFailureException e) {
+                dropped = true;
+                throw e;
+            } finally {
+                limiter.release(start, dropped);
+            }
+        }
+
+        private boolean isExempt(Method method, Object[] args) {
+            // keyCommands()等只返回命令接口的实现，不访问redis
+            if (method.getDeclaringClass() == Object.class || EXEMPT_METHODS.contains(method.getName())
+                    || method.getName().endsWith("Commands")) {
+                return true;
+            }
+            // pipeline、事务中的命令只是加入队列，不访问redis
+            if (connection.isPipelined() || connection.isQueueing()) {
+                return !"closePipeline".equals(method.getName()) && !"exec".equals(method.getName());
+            }
+            // 阻塞读取stream
+            if (args != null && method.getName().startsWith("xRead")) {
+                for (Object arg : args) {
+                    if (arg instanceof StreamReadOptions && ((StreamReadOptions) arg).isBlocking()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    private static Object newProxy(Object target, InvocationHandler handler) {
+        return Proxy.newProxyInstance(target.getClass().getClassLoader(),
+                ClassUtils.getAllInterfaces(target), handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+// 登录会话：redis中以hash保存token对应的用户，本机再缓存一小段时间，
+// 并在本地记录会话的过期时间，剩余有效期低于阈值时才刷新，大部分请求不访问redis
+@Component
+@ConditionalOnProperty(name = "hmdp.login.token-mode", havingValue = "redis", matchIfMissing = true)
+public class RedisSessionStore implements SessionStore {
+    // 本地缓存的会话数量
+    private static final int LOCAL_CACHE_SIZE = 100000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // token -> 会话，本地缓存过期后重新读取redis，登出时通过频道通知各实例清除
+    // 会话仍存在时才更新资料字段，避免写入一个没有过期时间的会话
+    private static final DefaultRedisScript<Long> SESSION_UPDATE_SCRIPT = new DefaultRedisScript<>(
+            "if (redis.call('exists', KEYS[1]) == 0) then return 0 end " +
+            "redis.call('hset', KEYS[1], 'nickName', ARGV[1], 'icon', ARGV[2]) return 1", Long.class);
+
+    private final LRUCache<String, Session> localCache =
+            CacheUtil.newLRUCache(LOCAL_CACHE_SIZE, TimeUnit.SECONDS.toMillis(LOGIN_LOCAL_TTL));
+
+    private static class Session {
+        final UserDTO user;
+        // 已知的redis中会话过期时间(毫秒)，只会被刷新延长，因此是实际过期时间的下界
+        volatile long expireAt;
+
+        Session(UserDTO user, long expireAt) {
+            this.user = user;
+            this.expireAt = expireAt;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        // 其他实例登出时清除本地缓存
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                localCache.remove(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(LOGIN_REVOKE_CHANNEL));
+    }
+
+    @Override
+    public String create(UserDTO user) {
+        String token = UUID.randomUUID().toString(true);
+        String tokenKey = LOGIN_USER_KEY + token;
+        Map<String, String> userMap = new HashMap<>(4);
+        userMap.put("id", user.getId().toString());
+        if (user.getNickName() != null) {
+            userMap.put("nickName", user.getNickName());
+        }
+        if (user.getIcon() != null) {
+            userMap.put("icon", user.getIcon());
+        }
+        long ttl = TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hMSet(tokenKey, userMap);
+            conn.expire(tokenKey, ttl);
+            return null;
+        });
+        localCache.put(token, new Session(user, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl)));
+        return token;
+    }
+
+    // 查询用户的同时按需续期
+    @Override
+    public UserDTO get(String token) {
+        long now = System.currentTimeMillis();
+        String tokenKey = LOGIN_USER_KEY + token;
+        long ttl = TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL);
+        // 1.本地命中，剩余有效期低于阈值时才续期
+        Session session = localCache.get(token, false);
+        if (session != null) {
+            if (session.expireAt - now < TimeUnit.MINUTES.toMillis(LOGIN_USER_REFRESH_THRESHOLD)) {
+                stringRedisTemplate.expire(tokenKey, ttl, TimeUnit.SECONDS);
+                session.expireAt = now + TimeUnit.SECONDS.toMillis(ttl);
+            }
+            return session.user;
+        }
+        // 2.本地未命中，查询和续期在一次pipeline中完成
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hGetAll(tokenKey);
+            conn.expire(tokenKey, ttl);
+            return null;
+        });
+        @SuppressWarnings("unchecked")
+        Map<String, String> userMap = (Map<String, String>) results.get(0);
+        if (userMap == null || userMap.isEmpty()) {
+            return null;
+        }
+        UserDTO user = toUserDTO(userMap);
+        localCache.put(token, new Session(user, now + TimeUnit.SECONDS.toMillis(ttl)));
+        return user;
+    }
+
+    // 只更新当前会话；同一用户的其他会话保留旧的昵称、头像，直到重新登录
+    @Override
+    public void refresh(String token, UserDTO user) {
+        Long updated = stringRedisTemplate.execute(SESSION_UPDATE_SCRIPT,
+                Collections.singletonList(LOGIN_USER_KEY + token),
+                StrUtil.nullToEmpty(user.getNickName()), StrUtil.nullToEmpty(user.getIcon()));
+        Session session = localCache.get(token, false);
+        if (updated != null && updated == 1 && session != null) {
+            localCache.put(token, new Session(user, session.expireAt));
+        }
+    }
+
+    @Override
+    public void remove(String token) {
+        stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+        localCache.remove(token);
+        stringRedisTemplate.convertAndSend(LOGIN_REVOKE_CHANNEL, token);
+    }
+
+    // 直接按字段转换，避免反射
+    private static UserDTO toUserDTO(Map<String, String> userMap) {
+        UserDTO user = new UserDTO();
+        String id = userMap.get("id");
+        user.setId(StrUtil.isBlank(id) ? null : Long.valueOf(id));
+        user.setNickName(userMap.get("nickName"));
+        user.setIcon(userMap.get("icon"));
+        return user;
+    }
+}
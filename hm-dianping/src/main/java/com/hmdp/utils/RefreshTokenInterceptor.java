@@ -1,27 +1,18 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
 
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor {
 
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+    private SessionStore sessionStore;
 
-public class RefreshTokenInterceptor implements HandlerInterceptor {
-
-    private StringRedisTemplate stringRedisTemplate;
-
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public RefreshTokenInterceptor(SessionStore sessionStore) {
+        this.sessionStore = sessionStore;
     }
 
     @Override
@@ -32,20 +23,15 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         if (StrUtil.isBlank(token)) {
             return true;
         }
-        // 2.基于token获取redis中用户
-        String tokenKey = LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(tokenKey);
+        // 2.基于token获取用户，并按需刷新token有效期
+        UserDTO userDTO = sessionStore.get(token);
         // 3.判断用户是否存在
-        if (userMap.isEmpty()) {
+        if (userDTO == null) {
             return true;
         }
-        // 5.将查询到的Hash数据转换为UserDTO
-        UserDTO userDTO = BeanUtil.mapToBean(userMap, UserDTO.class, true);
-        // 6.存在，保存用户信息到ThreadLocal
+        // 4.存在，保存用户信息到ThreadLocal
         UserHolder.saveUser(userDTO);
-        // 7.刷新token有效期
-        stringRedisTemplate.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
-        // 8.放行
+        // 5.放行
         return true;
     }
 
@@ -54,4 +40,10 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         // 移除用户，避免内存泄露
         UserHolder.removeUser();
     }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 异步请求不会在当前线程执行afterCompletion，tomcat线程归还前移除用户
+        UserHolder.removeUser();
+    }
 }
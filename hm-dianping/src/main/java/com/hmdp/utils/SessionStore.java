@@ -0,0 +1,19 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+
+// 登录会话存储，通过hmdp.login.token-mode选择实现
+public interface SessionStore {
+    // 创建会话，返回token
+    String create(UserDTO user);
+
+    // 根据token查询用户，会话不存在或已失效时返回null
+    UserDTO get(String token);
+
+    // 使会话失效
+    void remove(String token);
+
+    // 用户修改资料后更新会话中的昵称、头像；会话不保存资料的实现不需要处理
+    default void refresh(String token, UserDTO user) {
+    }
+}
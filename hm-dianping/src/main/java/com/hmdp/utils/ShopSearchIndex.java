@@ -0,0 +1,293 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+// 商铺搜索：对名称、商圈、地址建立字符n-gram(单字+双字)倒排索引，中文无需分词
+// 启动时从数据库分批加载，本机写入时实时更新，其他节点的写入由定时任务按update_time增量同步
+@Slf4j
+@Component
+public class ShopSearchIndex {
+    // 加载时每批读取的商铺数量
+    private static final int LOAD_BATCH_SIZE = 1000;
+    // 增量同步时回看的秒数，避免与数据库时钟、事务提交时间的误差导致漏同步
+    private static final long SYNC_LOOK_BACK_SECONDS = 5;
+    // 匹配质量得分：名称完全相同 > 名称前缀 > 名称包含 > 商圈包含 > 地址包含 > 只命中n-gram
+    private static final int NAME_EQUALS = 1000;
+    private static final int NAME_PREFIX = 500;
+    private static final int NAME_CONTAINS = 300;
+    private static final int AREA_CONTAINS = 100;
+    private static final int ADDRESS_CONTAINS = 50;
+    private static final int GRAM_ONLY = 10;
+    // 搜索结果{id, 匹配质量, 评分}的排序：匹配质量、评分倒序，id正序
+    private static final Comparator<long[]> HIT_ORDER = Comparator.<long[]>comparingLong(h -> -h[1])
+            .thenComparingLong(h -> -h[2])
+            .thenComparingLong(h -> h[0]);
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    // gram -> 商铺id
+    private final Map<String, Set<Long>> postings = new HashMap<>();
+    // 商铺id -> 索引文档
+    private final Map<Long, Doc> docs = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService indexLoadExecutor = Executors.newSingleThreadExecutor();
+    // 首次加载完成前不提供搜索，调用方回退到数据库查询
+    private volatile boolean ready = false;
+    private volatile LocalDateTime lastSyncTime;
+
+    private static class Doc {
+        String name;
+        String area;
+        String address;
+        int score;
+        Set<String> grams;
+    }
+
+    @PostConstruct
+    private void init() {
+        indexLoadExecutor.submit(() -> {
+            try {
+                load(null);
+                ready = true;
+                log.info("商铺搜索索引加载完成，共{}家商铺", size());
+            } catch (Exception e) {
+                log.error("商铺搜索索引加载失败", e);
+            }
+        });
+    }
+
+    @PreDestroy
+    private void destroy() {
+        indexLoadExecutor.shutdownNow();
+    }
+
+    // 增量同步最近更新的商铺
+    @Scheduled(fixedDelay = 60000)
+    public void sync() {
+        if (!ready) {
+            return;
+        }
+        try {
+            load(lastSyncTime.minusSeconds(SYNC_LOOK_BACK_SECONDS));
+        } catch (Exception e) {
+            log.error("商铺搜索索引同步失败", e);
+        }
+    }
+
+    // 按主键分批读取商铺写入索引，since为null时全量加载
+    private void load(LocalDateTime since) {
+        LocalDateTime startTime = LocalDateTime.now();
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "name", "area", "address", "score")
+                    .ge(since != null, "update_time", since)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + LOAD_BATCH_SIZE));
+            if (shops.isEmpty()) {
+                break;
+            }
+            shops.forEach(this::put);
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        lastSyncTime = startTime;
+    }
+
+    // 新增或更新一家商铺的索引
+    public void put(Shop shop) {
+        if (shop == null || shop.getId() == null) {
+            return;
+        }
+        Doc doc = new Doc();
+        doc.name = normalize(shop.getName());
+        doc.area = normalize(shop.getArea());
+        doc.address = normalize(shop.getAddress());
+        doc.score = shop.getScore() == null ? 0 : shop.getScore();
+        doc.grams = new HashSet<>();
+        addGrams(doc.name, doc.grams);
+        addGrams(doc.area, doc.grams);
+        addGrams(doc.address, doc.grams);
+
+        Long id = shop.getId();
+        lock.writeLock().lock();
+        try {
+            Doc old = docs.put(id, doc);
+            if (old != null) {
+                removePostings(id, old.grams);
+            }
+            for (String gram : doc.grams) {
+                postings.computeIfAbsent(gram, k -> new HashSet<>()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long id) {
+        lock.writeLock().lock();
+        try {
+            Doc old = docs.remove(id);
+            if (old != null) {
+                removePostings(id, old.grams);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 搜索商铺，按匹配质量、评分倒序排列
+     * @param keyword 关键字
+     * @param offset 跳过的数量
+     * @param limit 返回的数量
+     * @return 商铺id，索引尚未加载完成时返回null
+     */
+    public List<Long> search(String keyword, int offset, int limit) {
+        if (!ready) {
+            return null;
+        }
+        String query = normalize(keyword);
+        if (query.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 1.关键字只有一个字时查单字索引，否则查双字索引
+        Set<String> grams = new HashSet<>();
+        if (query.length() == 1) {
+            grams.add(query);
+        } else {
+            for (int i = 0; i + 1 < query.length(); i++) {
+                grams.add(query.substring(i, i + 2));
+            }
+        }
+        lock.readLock().lock();
+        try {
+            // 2.从最短的倒排表开始求交集
+            List<Set<Long>> lists = new ArrayList<>();
+            for (String gram : grams) {
+                Set<Long> ids = postings.get(gram);
+                if (ids == null) {
+                    return Collections.emptyList();
+                }
+                lists.add(ids);
+            }
+            lists.sort(Comparator.comparingInt(Set::size));
+            // 3.只保留前offset+limit个结果：堆顶是已保留结果中排名最后的，新结果排在它前面时替换
+            long keep = (long) offset + limit;
+            if (limit <= 0 || keep <= 0) {
+                return Collections.emptyList();
+            }
+            PriorityQueue<long[]> top = new PriorityQueue<>(HIT_ORDER.reversed());
+            for (Long id : lists.get(0)) {
+                boolean all = true;
+                for (int i = 1; i < lists.size() && all; i++) {
+                    all = lists.get(i).contains(id);
+                }
+                if (!all) {
+                    continue;
+                }
+                Doc doc = docs.get(id);
+                long[] hit = {id, match(doc, query), doc.score};
+                if (top.size() < keep) {
+                    top.add(hit);
+                } else if (HIT_ORDER.compare(hit, top.peek()) < 0) {
+                    top.poll();
+                    top.add(hit);
+                }
+            }
+            return top.stream()
+                    .sorted(HIT_ORDER)
+                    .skip(offset)
+                    .map(h -> h[0])
+                    .collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int match(Doc doc, String query) {
+        if (doc.name.equals(query)) {
+            return NAME_EQUALS;
+        }
+        if (doc.name.startsWith(query)) {
+            return NAME_PREFIX;
+        }
+        if (doc.name.contains(query)) {
+            return NAME_CONTAINS;
+        }
+        if (doc.area.contains(query)) {
+            return AREA_CONTAINS;
+        }
+        if (doc.address.contains(query)) {
+            return ADDRESS_CONTAINS;
+        }
+        // 各个双字都命中但不连续
+        return GRAM_ONLY;
+    }
+
+    private void removePostings(Long id, Set<String> grams) {
+        for (String gram : grams) {
+            Set<Long> ids = postings.get(gram);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    private static void addGrams(String text, Set<String> grams) {
+        for (int i = 0; i < text.length(); i++) {
+            grams.add(text.substring(i, i + 1));
+            if (i + 1 < text.length()) {
+                grams.add(text.substring(i, i + 2));
+            }
+        }
+    }
+
+    // 统一小写，去掉空白和标点
+    private static String normalize(String text) {
+        if (StrUtil.isBlank(text)) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        for (char c : text.toLowerCase().toCharArray()) {
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,194 @@
+package com.hmdp.utils;
+
+import cn.hutool.bloomfilter.BitMapBloomFilter;
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+// 无状态的签名token：token中携带用户信息和过期时间，用HMAC-SHA256签名，校验时不访问redis
+// 格式为 kid.base64(payload).base64(签名)，kid指明签名密钥，轮换密钥时旧密钥继续用于校验
+// 昵称、头像签在token中，修改资料后旧token中仍是旧值，直到重新登录或token过期
+// 登出的token id写入redis的吊销集合，同时同步到本地布隆过滤器，只有命中过滤器时才需要查询redis确认
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.login.token-mode", havingValue = "signed")
+public class SignedTokenSessionStore implements SessionStore {
+    private static final String ALGORITHM = "HmacSHA256";
+    // 布隆过滤器大小(MB)
+    private static final int BLOOM_FILTER_SIZE = 4;
+    // 签名密钥的最小长度，不短于HMAC-SHA256的256位输出
+    private static final int MIN_SECRET_LENGTH = 32;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 签名密钥，格式为 kid1:secret1,kid2:secret2，通过环境变量HMDP_LOGIN_KEYS或外部配置提供
+    @Value("${hmdp.login.keys:}")
+    private String keysConfig;
+    // 签发新token使用的密钥
+    @Value("${hmdp.login.active-kid:}")
+    private String activeKid;
+
+    // kid -> Mac原型，使用时clone，Mac本身不是线程安全的
+    private final Map<String, Mac> macs = new HashMap<>();
+    private volatile BitMapBloomFilter revokedFilter = new BitMapBloomFilter(BLOOM_FILTER_SIZE);
+
+    @PostConstruct
+    private void init() throws Exception {
+        // 1.加载密钥
+        for (String item : StrUtil.split(keysConfig, ',', true, true)) {
+            int index = item.indexOf(':');
+            if (index <= 0) {
+                throw new IllegalStateException("错误的登录签名密钥配置：" + item);
+            }
+            String secret = item.substring(index + 1).trim();
+            // 拒绝过短或示例中的占位密钥，否则任何人都能伪造token
+            if (secret.length() < MIN_SECRET_LENGTH || StrUtil.containsIgnoreCase(secret, "change-me")) {
+                throw new IllegalStateException("登录签名密钥过短或仍是占位值：" + item.substring(0, index));
+            }
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+            macs.put(item.substring(0, index), mac);
+        }
+        if (!macs.containsKey(activeKid)) {
+            throw new IllegalStateException("未配置登录签名密钥：" + activeKid);
+        }
+        // 2.订阅吊销事件，再加载已吊销的token
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                markRevoked(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(LOGIN_REVOKE_CHANNEL));
+        reloadRevoked();
+    }
+
+    @Override
+    public String create(UserDTO user) {
+        JSONObject payload = new JSONObject();
+        payload.set("jti", UUID.randomUUID().toString(true));
+        payload.set("exp", System.currentTimeMillis() + TimeUnit.HOURS.toMillis(LOGIN_SIGNED_TTL));
+        payload.set("id", user.getId());
+        payload.set("nickName", user.getNickName());
+        payload.set("icon", user.getIcon());
+        String body = activeKid + "." + Base64.encodeUrlSafe(payload.toString().getBytes(StandardCharsets.UTF_8));
+        return body + "." + Base64.encodeUrlSafe(sign(activeKid, body));
+    }
+
+    @Override
+    public UserDTO get(String token) {
+        JSONObject payload = verify(token);
+        if (payload == null) {
+            return null;
+        }
+        UserDTO user = new UserDTO();
+        user.setId(payload.getLong("id"));
+        user.setNickName(payload.getStr("nickName"));
+        user.setIcon(payload.getStr("icon"));
+        return user;
+    }
+
+    @Override
+    public void remove(String token) {
+        JSONObject payload = verify(token);
+        if (payload == null) {
+            return;
+        }
+        // 吊销记录保留到token过期为止
+        String jti = payload.getStr("jti");
+        stringRedisTemplate.opsForZSet().add(LOGIN_REVOKED_KEY, jti, payload.getLong("exp"));
+        markRevoked(jti);
+        stringRedisTemplate.convertAndSend(LOGIN_REVOKE_CHANNEL, jti);
+    }
+
+    // 定时清理已过期的吊销记录并重建布隆过滤器，同时弥补可能丢失的吊销消息
+    @Scheduled(fixedDelay = 600000)
+    public void reloadRevoked() {
+        try {
+            long now = System.currentTimeMillis();
+            stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_REVOKED_KEY, 0, now);
+            BitMapBloomFilter filter = new BitMapBloomFilter(BLOOM_FILTER_SIZE);
+            // 加锁期间收到的吊销消息等待替换完成后再写入，不会丢失
+            synchronized (this) {
+                Set<String> jtis = stringRedisTemplate.opsForZSet().rangeByScore(LOGIN_REVOKED_KEY, now, Double.MAX_VALUE);
+                if (jtis != null) {
+                    jtis.forEach(filter::add);
+                }
+                revokedFilter = filter;
+            }
+        } catch (Exception e) {
+            log.error("加载已吊销的token失败", e);
+        }
+    }
+
+    private synchronized void markRevoked(String jti) {
+        revokedFilter.add(jti);
+    }
+
+    // 校验签名、有效期和吊销状态，失败时返回null
+    private JSONObject verify(String token) {
+        int first = token.indexOf('.');
+        int last = token.lastIndexOf('.');
+        if (first <= 0 || last == first) {
+            return null;
+        }
+        try {
+            // 1.先校验签名，再解析payload
+            String kid = token.substring(0, first);
+            String body = token.substring(0, last);
+            if (!macs.containsKey(kid)) {
+                return null;
+            }
+            byte[] signature = Base64.decode(token.substring(last + 1));
+            if (!MessageDigest.isEqual(signature, sign(kid, body))) {
+                return null;
+            }
+            JSONObject payload = JSONUtil.parseObj(Base64.decodeStr(token.substring(first + 1, last), StandardCharsets.UTF_8));
+            // 2.校验有效期
+            Long exp = payload.getLong("exp");
+            if (exp == null || exp < System.currentTimeMillis()) {
+                return null;
+            }
+            // 3.布隆过滤器未命中说明一定没有被吊销，命中时查询redis确认
+            String jti = payload.getStr("jti");
+            if (revokedFilter.contains(jti)
+                    && stringRedisTemplate.opsForZSet().score(LOGIN_REVOKED_KEY, jti) != null) {
+                return null;
+            }
+            return payload;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private byte[] sign(String kid, String body) {
+        try {
+            Mac mac = (Mac) macs.get(kid).clone();
+            return mac.doFinal(body.getBytes(StandardCharsets.UTF_8));
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,8 +1,21 @@
 package com.hmdp.utils;
 
 public class SystemConstants {
-    public static final String IMAGE_UPLOAD_DIR = "D:\\code\\ReviewPro\\hmdpNginx\\html\\hmdp\\imgs\\";
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    public static final int MAX_BATCH_SIZE = 100;
+    // 热门博客：一个赞、一条评论对应的热度，以及开启时间衰减时热度与发布时间的换算(多少秒的发布时间差相当于1点热度)
+    public static final int BLOG_HOT_LIKE_WEIGHT = 1;
+    public static final int BLOG_HOT_COMMENT_WEIGHT = 2;
+    public static final long BLOG_HOT_DECAY_SECONDS = 45000L;
+    public static final int FEED_PAGE_SIZE = 2;
+    // 收件箱最大长度，更早的博客从数据库查询
+    public static final int FEED_INBOX_MAX_SIZE = 1000;
+    // 粉丝数超过该值的作者只写自己的发件箱，由粉丝读取时拉取
+    public static final int FEED_BIG_AUTHOR_FANS = 5000;
+    // 秒杀接口的执行线程数、排队请求数，以及请求的最长等待时间(毫秒)
+    public static final int SECKILL_HANDLER_THREADS = 32;
+    public static final int SECKILL_QUEUE_CAPACITY = 2000;
+    public static final long SECKILL_TIMEOUT = 3000L;
 }
@@ -0,0 +1,33 @@
+package com.hmdp.utils;
+
+// 本地令牌桶：按固定速率补充令牌，最多积攒capacity个，允许短时间的突发请求
+public class TokenBucket {
+    private final double capacity;
+    // 每纳秒补充的令牌数
+    private final double permitsPerNano;
+    private double tokens;
+    private long lastRefillTime;
+
+    public TokenBucket(double permitsPerSecond, int capacity) {
+        this.capacity = capacity > 0 ? capacity : Math.max(permitsPerSecond, 1);
+        this.permitsPerNano = permitsPerSecond / 1_000_000_000D;
+        this.tokens = this.capacity;
+        this.lastRefillTime = System.nanoTime();
+    }
+
+    public synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillTime) * permitsPerNano);
+        lastRefillTime = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    // 退还一个令牌，用于后续的限流检查拒绝了本次请求时
+    public synchronized void refund() {
+        tokens = Math.min(capacity, tokens + 1);
+    }
+}
@@ -0,0 +1,257 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.User;
+import com.hmdp.entity.UserInfo;
+import com.hmdp.mapper.UserInfoMapper;
+import com.hmdp.mapper.UserMapper;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+// 用户资料缓存：UserDTO和UserInfo以hash保存在redis中，本机再缓存一小段时间
+// 资料修改时删除redis缓存，并通过频道通知各实例清除本地缓存
+@Component
+public class UserProfileCache {
+    // 本地缓存的用户数量
+    private static final int LOCAL_CACHE_SIZE = 50000;
+    // 空值标记字段，用于缓存不存在的用户，避免缓存穿透
+    private static final String NULL_FIELD = "_null";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private UserMapper userMapper;
+    @Resource
+    private UserInfoMapper userInfoMapper;
+
+    private final LRUCache<Long, UserDTO> localUsers =
+            CacheUtil.newLRUCache(LOCAL_CACHE_SIZE, TimeUnit.SECONDS.toMillis(CACHE_USER_LOCAL_TTL));
+    private final LRUCache<Long, UserInfo> localInfos =
+            CacheUtil.newLRUCache(LOCAL_CACHE_SIZE, TimeUnit.SECONDS.toMillis(CACHE_USER_LOCAL_TTL));
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            Long id = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+            localUsers.remove(id);
+            localInfos.remove(id);
+        }, new ChannelTopic(CACHE_USER_INVALIDATE_CHANNEL));
+    }
+
+    public UserDTO getUser(Long id) {
+        return getUserMap(Collections.singletonList(id)).get(id);
+    }
+
+    // 按ids的顺序返回用户，不存在的用户被跳过
+    public List<UserDTO> getUsers(List<Long> ids) {
+        Map<Long, UserDTO> users = getUserMap(ids);
+        return ids.stream().map(users::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    // 批量查询用户：本地缓存 -> 一次pipeline查询redis -> 一次SQL查询数据库并pipeline回写
+    public Map<Long, UserDTO> getUserMap(Collection<Long> ids) {
+        Map<Long, UserDTO> result = new HashMap<>();
+        List<Long> missIds = new ArrayList<>();
+        for (Long id : new LinkedHashSet<>(ids)) {
+            if (id == null) {
+                continue;
+            }
+            UserDTO user = localUsers.get(id, false);
+            if (user != null) {
+                result.put(id, user);
+            } else {
+                missIds.add(id);
+            }
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+        // 1.查询redis
+        List<Map<String, String>> hashes = hGetAll(CACHE_USER_KEY, missIds);
+        List<Long> dbIds = new ArrayList<>();
+        for (int i = 0; i < missIds.size(); i++) {
+            Map<String, String> hash = hashes.get(i);
+            if (hash == null || hash.isEmpty()) {
+                dbIds.add(missIds.get(i));
+            } else if (!hash.containsKey(NULL_FIELD)) {
+                UserDTO user = toUserDTO(hash);
+                result.put(user.getId(), user);
+                localUsers.put(user.getId(), user);
+            }
+        }
+        if (dbIds.isEmpty()) {
+            return result;
+        }
+        // 2.查询数据库并回写redis，不存在的用户写入空值
+        Map<Long, Map<String, String>> toCache = new HashMap<>();
+        for (User user : userMapper.selectBatchIds(dbIds)) {
+            UserDTO userDTO = new UserDTO();
+            userDTO.setId(user.getId());
+            userDTO.setNickName(user.getNickName());
+            userDTO.setIcon(user.getIcon());
+            result.put(user.getId(), userDTO);
+            localUsers.put(user.getId(), userDTO);
+            toCache.put(user.getId(), toHash(userDTO));
+        }
+        writeBack(CACHE_USER_KEY, dbIds, toCache);
+        return result;
+    }
+
+    public UserInfo getUserInfo(Long id) {
+        UserInfo info = localInfos.get(id, false);
+        if (info != null) {
+            return info;
+        }
+        // 1.查询redis
+        Map<String, String> hash = hGetAll(CACHE_USER_INFO_KEY, Collections.singletonList(id)).get(0);
+        if (hash != null && !hash.isEmpty()) {
+            if (hash.containsKey(NULL_FIELD)) {
+                return null;
+            }
+            info = toUserInfo(hash);
+            localInfos.put(id, info);
+            return info;
+        }
+        // 2.查询数据库并回写redis
+        info = userInfoMapper.selectById(id);
+        Map<Long, Map<String, String>> toCache = new HashMap<>();
+        if (info != null) {
+            // 创建、修改时间不对外展示
+            info.setCreateTime(null);
+            info.setUpdateTime(null);
+            localInfos.put(id, info);
+            toCache.put(id, toHash(info));
+        }
+        writeBack(CACHE_USER_INFO_KEY, Collections.singletonList(id), toCache);
+        return info;
+    }
+
+    // 用户资料修改后调用
+    public void invalidate(Long id) {
+        invalidate(Collections.singletonList(id));
+    }
+
+    public void invalidate(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long id : ids) {
+                conn.del(CACHE_USER_KEY + id, CACHE_USER_INFO_KEY + id);
+                conn.publish(CACHE_USER_INVALIDATE_CHANNEL, id.toString());
+            }
+            return null;
+        });
+        ids.forEach(id -> {
+            localUsers.remove(id);
+            localInfos.remove(id);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, String>> hGetAll(String keyPrefix, List<Long> ids) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long id : ids) {
+                conn.hGetAll(keyPrefix + id);
+            }
+            return null;
+        });
+        return results.stream().map(o -> (Map<String, String>) o).collect(Collectors.toList());
+    }
+
+    // 回写redis，ids中未出现在hashes里的写入空值
+    private void writeBack(String keyPrefix, List<Long> ids, Map<Long, Map<String, String>> hashes) {
+        long ttl = TimeUnit.MINUTES.toSeconds(CACHE_USER_TTL);
+        long nullTtl = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long id : ids) {
+                String key = keyPrefix + id;
+                Map<String, String> hash = hashes.get(id);
+                if (hash != null) {
+                    conn.hMSet(key, hash);
+                    conn.expire(key, ttl);
+                } else {
+                    conn.hSet(key, NULL_FIELD, "1");
+                    conn.expire(key, nullTtl);
+                }
+            }
+            return null;
+        });
+    }
+
+    private static Map<String, String> toHash(UserDTO user) {
+        Map<String, String> hash = new HashMap<>(4);
+        hash.put("id", user.getId().toString());
+        putIfNotNull(hash, "nickName", user.getNickName());
+        putIfNotNull(hash, "icon", user.getIcon());
+        return hash;
+    }
+
+    private static UserDTO toUserDTO(Map<String, String> hash) {
+        UserDTO user = new UserDTO();
+        user.setId(Long.valueOf(hash.get("id")));
+        user.setNickName(hash.get("nickName"));
+        user.setIcon(hash.get("icon"));
+        return user;
+    }
+
+    private static Map<String, String> toHash(UserInfo info) {
+        Map<String, String> hash = new HashMap<>(16);
+        hash.put("userId", info.getUserId().toString());
+        putIfNotNull(hash, "city", info.getCity());
+        putIfNotNull(hash, "introduce", info.getIntroduce());
+        putIfNotNull(hash, "fans", info.getFans());
+        putIfNotNull(hash, "followee", info.getFollowee());
+        putIfNotNull(hash, "gender", info.getGender());
+        putIfNotNull(hash, "birthday", info.getBirthday());
+        putIfNotNull(hash, "credits", info.getCredits());
+        putIfNotNull(hash, "level", info.getLevel());
+        return hash;
+    }
+
+    private static UserInfo toUserInfo(Map<String, String> hash) {
+        UserInfo info = new UserInfo();
+        info.setUserId(Long.valueOf(hash.get("userId")));
+        info.setCity(hash.get("city"));
+        info.setIntroduce(hash.get("introduce"));
+        info.setFans(toInteger(hash.get("fans")));
+        info.setFollowee(toInteger(hash.get("followee")));
+        info.setGender(hash.containsKey("gender") ? Boolean.valueOf(hash.get("gender")) : null);
+        info.setBirthday(hash.containsKey("birthday") ? LocalDate.parse(hash.get("birthday")) : null);
+        info.setCredits(toInteger(hash.get("credits")));
+        info.setLevel(hash.containsKey("level") ? Boolean.valueOf(hash.get("level")) : null);
+        return info;
+    }
+
+    private static void putIfNotNull(Map<String, String> hash, String field, Object value) {
+        if (value != null) {
+            hash.put(field, value.toString());
+        }
+    }
+
+    private static Integer toInteger(String value) {
+        return StrUtil.isBlank(value) ? null : Integer.valueOf(value);
+    }
+}
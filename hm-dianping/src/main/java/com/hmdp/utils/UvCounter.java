@@ -0,0 +1,135 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.UV_DAY_TTL;
+import static com.hmdp.utils.RedisConstants.UV_MERGE_TTL;
+
+// 基于HyperLogLog的UV统计，访问记录先缓冲在本地，定时通过pipeline批量PFADD
+@Slf4j
+@Component
+public class UvCounter {
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.BASIC_ISO_DATE;
+    // 本地缓冲上限，超出后直接丢弃(UV本身是估算值，少量丢失可接受)
+    private static final int MAX_BUFFER_SIZE = 100000;
+    // 每次flush最多处理的记录数
+    private static final int FLUSH_BATCH_SIZE = 5000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final Queue<String[]> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferSize = new AtomicInteger();
+
+    // 记录一次访问，只写本地队列，不阻塞请求
+    public void record(String keyPrefix, Long id, String visitor) {
+        if (id == null || StrUtil.isBlank(visitor)) {
+            return;
+        }
+        if (bufferSize.incrementAndGet() > MAX_BUFFER_SIZE) {
+            bufferSize.decrementAndGet();
+            return;
+        }
+        buffer.offer(new String[]{dayKey(keyPrefix, id, LocalDate.now()), visitor});
+    }
+
+    // 访客标识：登录用户用userId，未登录用户用ip
+    public static String visitorOf(HttpServletRequest request) {
+        UserDTO user = UserHolder.getUser();
+        if (user != null) {
+            return user.getId().toString();
+        }
+        String ip = request.getHeader("X-Real-IP");
+        if (StrUtil.isBlank(ip)) {
+            ip = request.getRemoteAddr();
+        }
+        return "ip:" + ip;
+    }
+
+    @Scheduled(fixedDelay = 1000)
+    public void flush() {
+        while (!buffer.isEmpty()) {
+            // 1.取出一批记录，按key聚合去重
+            Map<String, Set<String>> batch = new HashMap<>();
+            for (int i = 0; i < FLUSH_BATCH_SIZE; i++) {
+                String[] item = buffer.poll();
+                if (item == null) {
+                    break;
+                }
+                bufferSize.decrementAndGet();
+                batch.computeIfAbsent(item[0], k -> new HashSet<>()).add(item[1]);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            // 2.pipeline批量写入
+            try {
+                long ttl = TimeUnit.DAYS.toSeconds(UV_DAY_TTL);
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    batch.forEach((key, visitors) -> {
+                        conn.pfAdd(key, visitors.toArray(new String[0]));
+                        conn.expire(key, ttl);
+                    });
+                    return null;
+                });
+            } catch (Exception e) {
+                log.error("UV数据写入失败", e);
+                return;
+            }
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        flush();
+    }
+
+    // 查询[begin, end]区间内的UV，多天时通过PFMERGE合并并缓存合并结果
+    public long count(String keyPrefix, Long id, LocalDate begin, LocalDate end) {
+        if (begin.isAfter(end)) {
+            return 0L;
+        }
+        if (begin.isEqual(end)) {
+            Long size = stringRedisTemplate.opsForHyperLogLog().size(dayKey(keyPrefix, id, begin));
+            return size == null ? 0L : size;
+        }
+        String mergeKey = keyPrefix + id + ":" + begin.format(DAY_FORMATTER) + "-" + end.format(DAY_FORMATTER);
+        // 合并结果缓存：已结束的区间不会再变化，长期保留；包含今天的区间短期缓存
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(mergeKey))) {
+            List<String> dayKeys = new ArrayList<>();
+            for (LocalDate day = begin; !day.isAfter(end); day = day.plusDays(1)) {
+                dayKeys.add(dayKey(keyPrefix, id, day));
+            }
+            stringRedisTemplate.opsForHyperLogLog().union(mergeKey, dayKeys.toArray(new String[0]));
+            if (end.isBefore(LocalDate.now())) {
+                stringRedisTemplate.expire(mergeKey, UV_DAY_TTL, TimeUnit.DAYS);
+            } else {
+                stringRedisTemplate.expire(mergeKey, UV_MERGE_TTL, TimeUnit.MINUTES);
+            }
+        }
+        Long size = stringRedisTemplate.opsForHyperLogLog().size(mergeKey);
+        return size == null ? 0L : size;
+    }
+
+    private static String dayKey(String keyPrefix, Long id, LocalDate day) {
+        return keyPrefix + id + ":" + day.format(DAY_FORMATTER);
+    }
+}
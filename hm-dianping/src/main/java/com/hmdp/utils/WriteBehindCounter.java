@@ -0,0 +1,78 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// 计数器写回：计数增量先累加在redis的hash中(field为id，value为增量)，由定时任务批量写回数据库
+@Slf4j
+@Component
+public class WriteBehindCounter {
+    // 每条SQL最多更新的行数
+    private static final int BATCH_SIZE = 500;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedissonClient redissonClient;
+
+    public void incr(String deltaKey, Long id, long delta) {
+        stringRedisTemplate.opsForHash().increment(deltaKey, id.toString(), delta);
+    }
+
+    // 取出累计的增量交给writer写回数据库，writer成功后才删除增量
+    public void drain(String deltaKey, Consumer<Map<Long, Long>> writer) {
+        // 多实例部署时只允许一个实例写回，避免重复累加
+        RLock lock = redissonClient.getLock("lock:" + deltaKey);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            // 1.上次写回失败残留的增量优先处理，否则将当前增量整体改名，之后的累加写入新的hash
+            String flushingKey = deltaKey + ":flushing";
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(flushingKey))) {
+                if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(deltaKey))) {
+                    return;
+                }
+                stringRedisTemplate.rename(deltaKey, flushingKey);
+            }
+            // 2.读取增量，分批写回
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(flushingKey);
+            Map<Long, Long> batch = new HashMap<>();
+            for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+                long delta = Long.parseLong(entry.getValue().toString());
+                if (delta == 0) {
+                    continue;
+                }
+                batch.put(Long.valueOf(entry.getKey().toString()), delta);
+                if (batch.size() >= BATCH_SIZE) {
+                    write(flushingKey, batch, writer);
+                    batch = new HashMap<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                write(flushingKey, batch, writer);
+            }
+            // 3.写回成功，删除增量
+            stringRedisTemplate.delete(flushingKey);
+        } catch (Exception e) {
+            log.error("计数器写回失败，{}", deltaKey, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 每批写回成功后立即删除对应的增量，失败重试时不会重复累加已写回的批次
+    private void write(String flushingKey, Map<Long, Long> batch, Consumer<Map<Long, Long>> writer) {
+        writer.accept(batch);
+        stringRedisTemplate.opsForHash().delete(flushingKey,
+                batch.keySet().stream().map(String::valueOf).toArray());
+    }
+}
@@ -0,0 +1,18 @@
+-- 1.参数列表
+-- 1.1.博客id
+local blogId = ARGV[1]
+-- 1.2.发布时间
+local timestamp = ARGV[2]
+-- 1.3.收件箱最大长度
+local maxSize = tonumber(ARGV[3])
+
+-- 2.脚本业务，KEYS为本批粉丝的收件箱，或大V的发件箱
+for i, key in ipairs(KEYS) do
+    -- 2.1.只写入仍然存在的key，长期不活跃的收件箱、发件箱已过期，读取时再从数据库重建
+    if (redis.call('exists', key) == 1) then
+        redis.call('zadd', key, timestamp, blogId)
+        -- 2.2.裁剪收件箱，只保留最新的maxSize条
+        redis.call('zremrangebyrank', key, 0, -maxSize - 1)
+    end
+end
+return 0
@@ -0,0 +1,51 @@
+-- 1.参数列表
+-- 1.1.当前用户id
+local userId = ARGV[1]
+-- 1.2.被关注的用户id
+local followUserId = ARGV[2]
+-- 1.3.1关注，0取关
+local isFollow = ARGV[3]
+-- 1.4.关注事件频道
+local channel = ARGV[4]
+
+-- 2.数据key
+-- 2.1.当前用户的关注集合
+local followKey = KEYS[1]
+-- 2.2.被关注用户的粉丝集合
+local fansKey = KEYS[2]
+-- 2.3.关注数增量
+local followeeDeltaKey = KEYS[3]
+-- 2.4.粉丝数增量
+local fansDeltaKey = KEYS[4]
+
+-- 3.关注集合不存在时无法判断状态是否变化，返回-1由调用方加载后重试
+-- 不能直接写入，否则会创建只有一个成员、没有占位成员的集合，之后不会再从数据库加载
+if (redis.call('exists', followKey) == 0) then
+    return -1
+end
+-- 粉丝集合不存在时不写入，下次读取时从数据库加载
+local fansLoaded = redis.call('exists', fansKey) == 1
+-- 4.修改关注关系，状态未变化时直接返回
+local delta = 1
+if (isFollow == '1') then
+    if (redis.call('sadd', followKey, followUserId) == 0) then
+        return 0
+    end
+    if (fansLoaded) then
+        redis.call('sadd', fansKey, userId)
+    end
+else
+    if (redis.call('srem', followKey, followUserId) == 0) then
+        return 0
+    end
+    if (fansLoaded) then
+        redis.call('srem', fansKey, userId)
+    end
+    delta = -1
+end
+-- 5.累加计数增量，由定时任务写回数据库
+redis.call('hincrby', followeeDeltaKey, userId, delta)
+redis.call('hincrby', fansDeltaKey, followUserId, delta)
+-- 6.发布关注事件，通知各实例更新本地关注关系图
+redis.call('publish', channel, userId .. ',' .. followUserId .. ',' .. isFollow)
+return 1
@@ -0,0 +1,21 @@
+-- 1.参数列表
+-- 1.1.热门博客排行key
+local hotKey = KEYS[1]
+-- 1.2.正在重建的标记key
+local rebuildingKey = KEYS[2]
+-- 1.3.重建期间的热度增量key
+local pendingKey = KEYS[3]
+-- 1.4.博客id
+local blogId = ARGV[1]
+-- 1.5.热度增量
+local delta = ARGV[2]
+
+-- 2.排行榜存在时直接更新；正在重建时同时记下增量，重建完成替换排行榜后补上
+-- (排行榜存在时也可能在重建，例如手动触发的重建，只更新旧排行榜的增量会随替换丢失)
+if (redis.call('exists', hotKey) == 1) then
+    redis.call('zincrby', hotKey, delta, blogId)
+end
+if (redis.call('exists', rebuildingKey) == 1) then
+    redis.call('hincrbyfloat', pendingKey, blogId, delta)
+end
+return 0
@@ -0,0 +1,18 @@
+-- 1.参数列表
+-- 1.1.重建的临时key
+local tmpKey = KEYS[1]
+-- 1.2.热门博客排行key
+local hotKey = KEYS[2]
+-- 1.3.正在重建的标记key
+local rebuildingKey = KEYS[3]
+-- 1.4.重建期间的热度增量key
+local pendingKey = KEYS[4]
+
+-- 2.替换排行榜，并补上重建期间的增量
+redis.call('rename', tmpKey, hotKey)
+local pending = redis.call('hgetall', pendingKey)
+for i = 1, #pending, 2 do
+    redis.call('zincrby', hotKey, pending[i + 1], pending[i])
+end
+redis.call('del', pendingKey, rebuildingKey)
+return 0
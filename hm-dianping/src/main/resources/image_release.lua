@@ -0,0 +1,30 @@
+-- 1.参数列表
+-- 1.1.用户上传的图片引用key
+local ownerKey = KEYS[1]
+-- 1.2.图片总引用计数key
+local refKey = KEYS[2]
+-- 1.3.待回收图片key
+local gcKey = KEYS[3]
+-- 1.4.图片名称
+local name = ARGV[1]
+-- 1.5.当前时间
+local now = ARGV[2]
+
+-- 2.只能释放自己上传过的图片，重复释放不会使计数变为负数
+local owned = tonumber(redis.call('hget', ownerKey, name) or '0')
+if (owned <= 0) then
+    return -1
+end
+if (owned == 1) then
+    redis.call('hdel', ownerKey, name)
+else
+    redis.call('hincrby', ownerKey, name, -1)
+end
+-- 3.总计数减1，归零时加入待回收队列
+local count = tonumber(redis.call('hget', refKey, name) or '0')
+if (count > 1) then
+    return redis.call('hincrby', refKey, name, -1)
+end
+redis.call('hset', refKey, name, 0)
+redis.call('zadd', gcKey, now, name)
+return 0
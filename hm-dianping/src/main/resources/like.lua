@@ -0,0 +1,46 @@
+-- 1.参数列表
+-- 1.1.博客id
+local blogId = ARGV[1]
+-- 1.2.用户id
+local userId = ARGV[2]
+-- 1.3.点赞时间
+local now = ARGV[3]
+-- 1.4.一个赞对应的热度
+local hotWeight = tonumber(ARGV[4])
+
+-- 2.数据key
+-- 2.1.博客点赞用户key
+local likedKey = 'blog:liked:' .. blogId
+-- 2.2.点赞数增量key，由定时任务批量写回数据库
+local deltaKey = 'blog:liked:delta'
+-- 2.3.热门博客排行key
+local hotKey = 'blog:hot'
+-- 2.4.排行榜正在重建的标记key，以及重建期间的热度增量key
+local rebuildingKey = 'blog:hot:rebuilding'
+local pendingKey = 'blog:hot:pending'
+
+-- 排行榜存在时同步更新热度，正在重建时同时记下增量，重建完成后补上
+local function incrHot(delta)
+    if (redis.call('exists', hotKey) == 1) then
+        redis.call('zincrby', hotKey, delta, blogId)
+    end
+    if (redis.call('exists', rebuildingKey) == 1) then
+        redis.call('hincrbyfloat', pendingKey, blogId, delta)
+    end
+end
+
+-- 3.脚本业务
+-- 3.1.判断用户是否已点赞
+if (redis.call('zscore', likedKey, userId)) then
+    -- 3.2.已点赞，取消点赞，返回0
+    redis.call('zrem', likedKey, userId)
+    redis.call('hincrby', deltaKey, blogId, -1)
+    -- 3.3.更新热度
+    incrHot(-hotWeight)
+    return 0
+end
+-- 3.4.未点赞，点赞，返回1
+redis.call('zadd', likedKey, now, userId)
+redis.call('hincrby', deltaKey, blogId, 1)
+incrHot(hotWeight)
+return 1
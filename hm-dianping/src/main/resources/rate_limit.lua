@@ -0,0 +1,20 @@
+-- 1.参数列表
+-- 1.1.当前秒的计数key
+local key = KEYS[1]
+-- 1.2.每秒预算
+local limit = tonumber(ARGV[1])
+-- 1.3.本次申请的令牌数
+local count = tonumber(ARGV[2])
+
+-- 2.计算可以租用的令牌数，预算已用完返回0
+local used = tonumber(redis.call('get', key) or '0')
+local granted = math.min(count, limit - used)
+if (granted <= 0) then
+    return 0
+end
+-- 3.扣减预算，第一次使用时设置过期时间
+redis.call('incrby', key, granted)
+if (used == 0) then
+    redis.call('expire', key, 2)
+end
+return granted
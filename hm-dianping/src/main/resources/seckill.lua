@@ -9,23 +9,34 @@ local orderId = ARGV[3]
 -- 2.数据key
 -- 2.1.库存key
 local stockKey = 'seckill:stock:' .. voucherId
--- 2.2.订单key
+-- 2.2.已下单用户位图key，以用户id为偏移量，每个用户占1位
+local buyerKey = 'seckill:buyer:' .. voucherId
+-- 2.3.旧版本以set保存的已下单用户key，仅用于兼容已开始的秒杀
 local orderKey = 'seckill:order:' .. voucherId
+-- 2.4.秒杀数据的过期时间key
+local expireKey = 'seckill:expire:' .. voucherId
 
 -- 3.脚本业务
--- 3.1.判断库存是否充足
-if (tonumber(redis.call('get', stockKey)) <= 0) then
+-- 3.1.判断库存是否充足(秒杀结束后库存key已过期)
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil or stock <= 0) then
     -- 库存不足，返回1
     return 1
 end
 -- 3.3.判断用户是否已下单
-if (redis.call('sismember', orderKey, userId) == 1) then
+if (redis.call('getbit', buyerKey, userId) == 1 or redis.call('sismember', orderKey, userId) == 1) then
     return 2
 end
 -- 3.4.减少库存
 redis.call('incrby', stockKey, -1)
--- 3.5.下单(将用户保存在redis中)
-redis.call('sadd', orderKey, userId)
+-- 3.5.下单(将用户保存在redis中)，首次写入位图时设置过期时间
+redis.call('setbit', buyerKey, userId, 1)
+if (redis.call('ttl', buyerKey) == -1) then
+    local expireAt = tonumber(redis.call('get', expireKey))
+    if (expireAt ~= nil) then
+        redis.call('expireat', buyerKey, expireAt)
+    end
+end
 -- 3.6.发送消息到队列中
 redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
 return 0
\ No newline at end of file
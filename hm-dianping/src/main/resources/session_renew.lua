@@ -0,0 +1,22 @@
+-- 1.参数列表
+-- 1.1.会话所在的桶
+local bucketKey = KEYS[1]
+-- 1.2.token除桶号外的部分
+local field = ARGV[1]
+-- 1.3.新的会话值，格式为 过期时间:用户id
+local value = ARGV[2]
+-- 1.4.当前时间
+local now = tonumber(ARGV[3])
+
+-- 2.会话已登出或已被清理时不再续期，避免把失效的会话写回
+local old = redis.call('hget', bucketKey, field)
+if (not old) then
+    return 0
+end
+-- 3.会话已过期但还未被清理，同样不续期
+local expireAt = tonumber(string.match(old, '^(%d+):'))
+if (expireAt == nil or expireAt < now) then
+    return 0
+end
+redis.call('hset', bucketKey, field, value)
+return 1
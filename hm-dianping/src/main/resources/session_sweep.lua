@@ -0,0 +1,18 @@
+-- 1.参数列表
+-- 1.1.KEYS为本批要清理的桶
+-- 1.2.当前时间
+local now = tonumber(ARGV[1])
+
+-- 2.逐个桶删除已过期的会话，读取和删除在同一个脚本中，不会删除期间被续期的会话
+local removed = 0
+for i, bucketKey in ipairs(KEYS) do
+    local entries = redis.call('hgetall', bucketKey)
+    for j = 1, #entries, 2 do
+        local expireAt = tonumber(string.match(entries[j + 1], '^(%d+):'))
+        if (expireAt == nil or expireAt < now) then
+            redis.call('hdel', bucketKey, entries[j])
+            removed = removed + 1
+        end
+    end
+end
+return removed
@@ -0,0 +1,15 @@
+-- 1.参数列表
+-- 1.1.临时key，已写入从数据库加载的数据
+local tmpKey = KEYS[1]
+-- 1.2.目标key
+local key = KEYS[2]
+
+-- 2.目标key已被其他线程加载，丢弃临时key
+if (redis.call('exists', key) == 1) then
+    redis.call('del', tmpKey)
+    return 0
+end
+-- 3.改名为目标key，临时key的过期时间会随改名保留，需要去掉
+redis.call('rename', tmpKey, key)
+redis.call('persist', key)
+return 1
@@ -0,0 +1,107 @@
+package com.hmdp;
+
+import cn.hutool.core.lang.UUID;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * 对比每个会话一个hash与分桶保存(BucketedSessionStore)两种方式下，单个会话占用的redis内存
+ * 需要一个空闲的redis，不在单元测试中运行，手动执行：
+ * java -cp ... com.hmdp.SessionMemoryBenchmark [host] [port] [password] [会话数]
+ */
+public class SessionMemoryBenchmark {
+    private static final String PREFIX = "bench:session:";
+    // 每个pipeline写入的会话数
+    private static final int BATCH_SIZE = 10000;
+
+    public static void main(String[] args) {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                args.length > 0 ? args[0] : "127.0.0.1", args.length > 1 ? Integer.parseInt(args[1]) : 6379);
+        if (args.length > 2) {
+            config.setPassword(args[2]);
+        }
+        int n = args.length > 3 ? Integer.parseInt(args[3]) : 100000;
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(config);
+        factory.afterPropertiesSet();
+        StringRedisTemplate template = new StringRedisTemplate(factory);
+        try {
+            long perKey = measure(template, n, perKeyLayout());
+            long perBucket = measure(template, n, bucketLayout());
+            System.out.println("会话数：" + n);
+            System.out.println("每个会话一个hash：" + perKey + " 字节/会话");
+            System.out.println("分桶保存：" + perBucket + " 字节/会话");
+        } finally {
+            factory.destroy();
+        }
+    }
+
+    private interface Layout {
+        // 写入一个会话，返回使用的key
+        String write(StringRedisConnection conn, int i);
+    }
+
+    // 每个会话一个hash，与RedisSessionStore相同的布局
+    private static Layout perKeyLayout() {
+        return (conn, i) -> {
+            String key = PREFIX + "token:" + UUID.randomUUID().toString(true);
+            Map<String, String> user = new HashMap<>();
+            user.put("id", String.valueOf(i));
+            user.put("nickName", "user_" + i);
+            user.put("icon", "");
+            conn.hMSet(key, user);
+            conn.expire(key, 1800);
+            return key;
+        };
+    }
+
+    // 分桶保存，与BucketedSessionStore相同的布局
+    private static Layout bucketLayout() {
+        long expireAt = System.currentTimeMillis() + 1800_000L;
+        return (conn, i) -> {
+            String token = UUID.randomUUID().toString(true);
+            String key = PREFIX + "bucket:" + Integer.parseInt(token.substring(0, 4), 16);
+            conn.hSet(key, token.substring(4), expireAt + ":" + i);
+            return key;
+        };
+    }
+
+    private static long measure(StringRedisTemplate template, int n, Layout layout) {
+        Set<String> keys = new HashSet<>();
+        long before = usedMemory(template);
+        // 分批pipeline写入，避免单个pipeline过大导致超时
+        for (int start = 0; start < n; start += BATCH_SIZE) {
+            int from = start;
+            int to = Math.min(start + BATCH_SIZE, n);
+            template.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (int i = from; i < to; i++) {
+                    keys.add(layout.write(conn, i));
+                }
+                return null;
+            });
+        }
+        long perSession = (usedMemory(template) - before) / n;
+        // 只删除本次写入的key
+        List<String> batch = new ArrayList<>(keys);
+        for (int i = 0; i < batch.size(); i += 1000) {
+            template.delete(batch.subList(i, Math.min(i + 1000, batch.size())));
+        }
+        return perSession;
+    }
+
+    private static long usedMemory(StringRedisTemplate template) {
+        Properties info = template.execute((RedisCallback<Properties>) connection -> connection.info("memory"));
+        return Long.parseLong(info.getProperty("used_memory"));
+    }
+}
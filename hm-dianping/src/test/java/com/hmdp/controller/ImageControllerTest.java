@@ -0,0 +1,35 @@
+package com.hmdp.controller;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageControllerTest {
+
+    @Test
+    void parseRange() {
+        assertArrayEquals(new long[]{0, 99}, ImageController.parseRange("bytes=0-99", 1000));
+        // 结束位置超出文件长度时截断
+        assertArrayEquals(new long[]{900, 999}, ImageController.parseRange("bytes=900-2000", 1000));
+        assertArrayEquals(new long[]{100, 999}, ImageController.parseRange("bytes=100-", 1000));
+        // 最后N个字节，N超过文件长度时从头开始
+        assertArrayEquals(new long[]{900, 999}, ImageController.parseRange("bytes=-100", 1000));
+        assertArrayEquals(new long[]{0, 999}, ImageController.parseRange("bytes=-5000", 1000));
+    }
+
+    @Test
+    void parseUnsatisfiableRange() {
+        assertNull(ImageController.parseRange("bytes=1000-", 1000));
+        assertNull(ImageController.parseRange("bytes=500-100", 1000));
+        assertNull(ImageController.parseRange("bytes=-0", 1000));
+    }
+
+    @Test
+    void parseUnsupportedRange() {
+        // 多个区间、其他单位、格式错误时发送整个文件
+        assertEquals(0, ImageController.parseRange("bytes=0-1,5-9", 1000).length);
+        assertEquals(0, ImageController.parseRange("items=0-1", 1000).length);
+        assertEquals(0, ImageController.parseRange("bytes=abc", 1000).length);
+        assertEquals(0, ImageController.parseRange("bytes=a-b", 1000).length);
+    }
+}
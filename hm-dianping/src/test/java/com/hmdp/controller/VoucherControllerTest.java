@@ -0,0 +1,27 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Voucher;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VoucherControllerTest {
+
+    @Test
+    void rejectSeckillVoucherThatHasEnded() {
+        // 结束时间校验在调用service之前，未注入service也不会访问
+        VoucherController controller = new VoucherController();
+        Voucher voucher = new Voucher();
+        voucher.setStock(100);
+        voucher.setBeginTime(LocalDateTime.now().minusDays(2));
+        voucher.setEndTime(LocalDateTime.now().minusDays(1));
+        Result result = controller.addSeckillVoucher(voucher);
+        assertFalse(result.getSuccess());
+
+        voucher.setEndTime(null);
+        assertFalse(controller.addSeckillVoucher(voucher).getSuccess());
+    }
+}
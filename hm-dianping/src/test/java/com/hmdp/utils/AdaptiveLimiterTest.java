@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveLimiterTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // 以固定并发(不超过当前限制)、固定响应时间执行若干轮调用，release时的开始时间按响应时间倒推
+    private static void run(AdaptiveLimiter limiter, int concurrency, long rtt, int rounds) {
+        for (int r = 0; r < rounds; r++) {
+            int n = Math.min(concurrency, limiter.getLimit());
+            for (int i = 0; i < n; i++) {
+                limiter.acquire();
+            }
+            for (int i = 0; i < n; i++) {
+                limiter.release(System.nanoTime() - rtt, false);
+            }
+        }
+    }
+
+    @Test
+    void rejectWhenLimitReached() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 2, 1, 10);
+        long first = limiter.acquire();
+        limiter.acquire();
+        assertThrows(OverloadException.class, limiter::acquire);
+        assertEquals(1, limiter.getRejected());
+        limiter.release(first, false);
+        assertDoesNotThrow(limiter::acquire);
+    }
+
+    @Test
+    void growWhileResponseTimeIsStable() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 10, 5, 100);
+        run(limiter, 10, MS, 50);
+        assertTrue(limiter.getLimit() > 10);
+        assertTrue(limiter.getLimit() <= 100);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void shrinkWhenResponseTimeGrows() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 50, 5, 100);
+        run(limiter, 50, MS, 20);
+        int before = limiter.getLimit();
+        // 下游开始排队，响应时间变为原来的10倍
+        run(limiter, limiter.getLimit(), 10 * MS, 20);
+        assertTrue(limiter.getLimit() < before);
+        assertTrue(limiter.getLimit() >= 5);
+    }
+
+    @Test
+    void shrinkOnDrop() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 100, 5, 200);
+        long start = limiter.acquire();
+        limiter.release(start, true);
+        assertEquals(90, limiter.getLimit());
+    }
+
+    @Test
+    void neverBelowMinLimit() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 10, 8, 100);
+        for (int i = 0; i < 20; i++) {
+            limiter.release(limiter.acquire(), true);
+        }
+        assertEquals(8, limiter.getLimit());
+    }
+}
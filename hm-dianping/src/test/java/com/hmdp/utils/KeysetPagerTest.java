@@ -0,0 +1,32 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeysetPagerTest {
+
+    @Test
+    void encodeAndDecodeId() {
+        assertArrayEquals(new String[]{"42"}, KeysetPager.decode(KeysetPager.encode(42L)));
+    }
+
+    @Test
+    void sortValueMayContainSeparator() {
+        // 时间类型的排序字段包含":"，id总是最后一段
+        String cursor = KeysetPager.encode("2021-12-22 10:30:00", 7L);
+        assertArrayEquals(new String[]{"2021-12-22 10:30:00", "7"}, KeysetPager.decode(cursor));
+    }
+
+    @Test
+    void cursorIsUrlSafe() {
+        String cursor = KeysetPager.encode("???>>>", 1L);
+        assertFalse(cursor.contains("+") || cursor.contains("/") || cursor.contains("="));
+    }
+
+    @Test
+    void blankCursorMeansFirstPage() {
+        assertNull(KeysetPager.decode(null));
+        assertNull(KeysetPager.decode(" "));
+    }
+}
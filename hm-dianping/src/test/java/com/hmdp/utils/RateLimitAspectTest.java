@@ -0,0 +1,95 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.impl.LRUCache;
+import com.hmdp.controller.VoucherOrderController;
+import com.hmdp.dto.UserDTO;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RateLimitAspectTest {
+
+    private RateLimitAspect aspect;
+    private StringRedisTemplate stringRedisTemplate;
+
+    @BeforeEach
+    void setUp() {
+        aspect = new RateLimitAspect();
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        ReflectionTestUtils.setField(aspect, "stringRedisTemplate", stringRedisTemplate);
+    }
+
+    private boolean tryAcquireCluster(long permitsPerSecond) {
+        return ReflectionTestUtils.invokeMethod(aspect, "tryAcquireCluster", "seckill:1", permitsPerSecond);
+    }
+
+    @Test
+    void consumeLeasedTokensLocally() {
+        // 每次租用每秒预算的1/20
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), anyString(), anyString())).thenReturn(5L);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(tryAcquireCluster(100));
+        }
+        // 跨秒时会重新租用，最多两次
+        verify(stringRedisTemplate, atMost(2)).execute(any(RedisScript.class), anyList(), anyString(), anyString());
+    }
+
+    @Test
+    void stopAskingRedisWhenBudgetExhausted() {
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), anyString(), anyString())).thenReturn(0L);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(tryAcquireCluster(100));
+        }
+        verify(stringRedisTemplate, atMost(2)).execute(any(RedisScript.class), anyList(), anyString(), anyString());
+    }
+
+    @Test
+    void backOffForTheRestOfTheSecondWhenRedisFails() {
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), anyString(), anyString()))
+                .thenThrow(new RedisConnectionFailureException("down"));
+        // redis不可用时只依赖本地限流，且本秒内不再访问redis
+        for (int i = 0; i < 100; i++) {
+            assertTrue(tryAcquireCluster(100));
+        }
+        verify(stringRedisTemplate, atMost(2)).execute(any(RedisScript.class), anyList(), anyString(), anyString());
+    }
+
+    @Test
+    void refundUserTokenWhenSharedBudgetRejects() throws Exception {
+        // 秒杀接口的配置：每个用户最多连续3次
+        RateLimit rateLimit = VoucherOrderController.class
+                .getMethod("seckillVoucher", Long.class).getAnnotation(RateLimit.class);
+        MethodSignature signature = mock(MethodSignature.class);
+        when(signature.getParameterNames()).thenReturn(new String[]{"voucherId"});
+        JoinPoint joinPoint = mock(JoinPoint.class);
+        when(joinPoint.getSignature()).thenReturn(signature);
+        when(joinPoint.getArgs()).thenReturn(new Object[]{1L});
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        UserHolder.saveUser(user);
+        try {
+            // 1.集群预算已用完，请求被拒绝，但不消耗用户的令牌
+            when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), anyString(), anyString())).thenReturn(0L);
+            for (int i = 0; i < 5; i++) {
+                assertThrows(RateLimitException.class, () -> aspect.limit(joinPoint, rateLimit));
+            }
+            // 2.集群恢复后，用户仍有完整的突发额度
+            ((LRUCache<?, ?>) ReflectionTestUtils.getField(aspect, "leases")).clear();
+            when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), anyString(), anyString())).thenReturn(250L);
+            for (int i = 0; i < rateLimit.userBurst(); i++) {
+                aspect.limit(joinPoint, rateLimit);
+            }
+        } finally {
+            UserHolder.removeUser();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShopSearchIndexTest {
+
+    private ShopSearchIndex index;
+
+    private static Shop shop(long id, String name, String area, String address, int score) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName(name);
+        shop.setArea(area);
+        shop.setAddress(address);
+        shop.setScore(score);
+        return shop;
+    }
+
+    @BeforeEach
+    void setUp() {
+        // 不启动spring，跳过从数据库加载
+        index = new ShopSearchIndex();
+        ReflectionTestUtils.setField(index, "ready", true);
+        index.put(shop(1, "103茶餐厅", "大关", "金华路锦昌文华苑29号", 37));
+        index.put(shop(2, "茶餐厅", "拱宸桥", "上塘路1035号", 45));
+        index.put(shop(3, "蔡馬洪涛烤肉", "拱宸桥", "拱墅区吉祥寺路", 46));
+        index.put(shop(4, "幸福里老北京涮锅", "大关", "茶餐厅旁边", 46));
+        index.put(shop(5, "新白鹿餐厅", "运河上街", "台州路2号", 46));
+    }
+
+    @Test
+    void notReadyBeforeLoad() {
+        assertNull(new ShopSearchIndex().search("茶餐厅", 0, 10));
+    }
+
+    @Test
+    void rankByMatchQualityThenScore() {
+        // 名称完全相同 > 名称包含 > 地址包含
+        assertEquals(Arrays.asList(2L, 1L, 4L), index.search("茶餐厅", 0, 10));
+        // 同为名称包含时按评分倒序，评分相同按id正序
+        assertEquals(Arrays.asList(5L, 2L, 1L, 4L), index.search("餐厅", 0, 10));
+    }
+
+    @Test
+    void pageWithOffsetAndLimit() {
+        assertEquals(Arrays.asList(5L, 2L), index.search("餐厅", 0, 2));
+        assertEquals(Arrays.asList(1L, 4L), index.search("餐厅", 2, 2));
+        assertEquals(Collections.emptyList(), index.search("餐厅", 4, 2));
+        // 偏移量很大时不溢出
+        assertEquals(Collections.emptyList(), index.search("餐厅", Integer.MAX_VALUE, 2));
+    }
+
+    @Test
+    void normalizeKeyword() {
+        assertEquals(Collections.singletonList(3L), index.search(" 烤肉！", 0, 10));
+        assertEquals(Collections.emptyList(), index.search("？？", 0, 10));
+        assertEquals(Collections.emptyList(), index.search("火锅店", 0, 10));
+    }
+
+    @Test
+    void updateReplacesOldGrams() {
+        index.put(shop(3, "洪涛火锅", "拱宸桥", "拱墅区吉祥寺路", 46));
+        assertEquals(Collections.emptyList(), index.search("烤肉", 0, 10));
+        assertEquals(Collections.singletonList(3L), index.search("火锅", 0, 10));
+    }
+
+    @Test
+    void remove() {
+        index.remove(2L);
+        assertEquals(Arrays.asList(1L, 4L), index.search("茶餐厅", 0, 10));
+        assertEquals(4, index.size());
+    }
+}
@@ -0,0 +1,53 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+    @Test
+    void allowBurstUpToCapacity() {
+        TokenBucket bucket = new TokenBucket(1, 3);
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void refillOverTime() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        // 每100ms补充一个令牌
+        Thread.sleep(200);
+        assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    void defaultCapacityIsOneSecondOfPermits() {
+        TokenBucket bucket = new TokenBucket(5, 0);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void refundUpToCapacity() {
+        TokenBucket bucket = new TokenBucket(1, 2);
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        bucket.refund();
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        // 退还不会超过容量
+        bucket.refund();
+        bucket.refund();
+        bucket.refund();
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+}
@@ -0,0 +1,144 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.HyperLogLogOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class UvCounterTest {
+
+    private UvCounter uvCounter;
+    private StringRedisTemplate stringRedisTemplate;
+    private HyperLogLogOperations<String, String> hyperLogLog;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        uvCounter = new UvCounter();
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        hyperLogLog = mock(HyperLogLogOperations.class);
+        when(stringRedisTemplate.opsForHyperLogLog()).thenReturn(hyperLogLog);
+        ReflectionTestUtils.setField(uvCounter, "stringRedisTemplate", stringRedisTemplate);
+    }
+
+    private static String day(LocalDate date) {
+        return date.format(DateTimeFormatter.BASIC_ISO_DATE);
+    }
+
+    // 执行flush提交的pipeline回调，返回回调中使用的连接
+    @SuppressWarnings("unchecked")
+    private StringRedisConnection flushAndCapture() {
+        ArgumentCaptor<RedisCallback<Object>> callback = ArgumentCaptor.forClass(RedisCallback.class);
+        uvCounter.flush();
+        verify(stringRedisTemplate).executePipelined(callback.capture());
+        StringRedisConnection connection = mock(StringRedisConnection.class);
+        callback.getValue().doInRedis(connection);
+        return connection;
+    }
+
+    @Test
+    void flushDedupesVisitorsPerKey() {
+        uvCounter.record(UV_BLOG_KEY, 1L, "u1");
+        uvCounter.record(UV_BLOG_KEY, 1L, "u1");
+        uvCounter.record(UV_BLOG_KEY, 1L, "u2");
+        uvCounter.record(UV_SHOP_KEY, 2L, "u1");
+        StringRedisConnection connection = flushAndCapture();
+
+        String today = day(LocalDate.now());
+        // 重复的访客只写入一次
+        verify(connection).pfAdd(eq(UV_BLOG_KEY + "1:" + today), anyString(), anyString());
+        verify(connection).pfAdd(UV_SHOP_KEY + "2:" + today, "u1");
+        verify(connection).expire(UV_BLOG_KEY + "1:" + today, TimeUnit.DAYS.toSeconds(UV_DAY_TTL));
+    }
+
+    @Test
+    void ignoreIncompleteRecords() {
+        uvCounter.record(UV_BLOG_KEY, null, "u1");
+        uvCounter.record(UV_BLOG_KEY, 1L, " ");
+        uvCounter.flush();
+        verify(stringRedisTemplate, never()).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    void dropRecordsWhenBufferIsFull() {
+        for (int i = 0; i < 100001; i++) {
+            uvCounter.record(UV_BLOG_KEY, 1L, "u" + i);
+        }
+        AtomicInteger bufferSize = (AtomicInteger) ReflectionTestUtils.getField(uvCounter, "bufferSize");
+        assertEquals(100000, bufferSize.get());
+    }
+
+    @Test
+    void visitorIsUserIdOrIp() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.0.0.1");
+        assertEquals("ip:10.0.0.1", UvCounter.visitorOf(request));
+        request.addHeader("X-Real-IP", "1.2.3.4");
+        assertEquals("ip:1.2.3.4", UvCounter.visitorOf(request));
+
+        UserDTO user = new UserDTO();
+        user.setId(7L);
+        UserHolder.saveUser(user);
+        try {
+            assertEquals("7", UvCounter.visitorOf(request));
+        } finally {
+            UserHolder.removeUser();
+        }
+    }
+
+    @Test
+    void countSingleDay() {
+        LocalDate today = LocalDate.now();
+        when(hyperLogLog.size(UV_BLOG_KEY + "1:" + day(today))).thenReturn(3L);
+        assertEquals(3L, uvCounter.count(UV_BLOG_KEY, 1L, today, today));
+        assertEquals(0L, uvCounter.count(UV_BLOG_KEY, 1L, today, today.minusDays(1)));
+    }
+
+    @Test
+    void countFinishedRangeMergesAndKeepsResult() {
+        LocalDate end = LocalDate.now().minusDays(1);
+        LocalDate begin = end.minusDays(2);
+        String mergeKey = UV_BLOG_KEY + "1:" + day(begin) + "-" + day(end);
+        when(hyperLogLog.size(mergeKey)).thenReturn(5L);
+
+        assertEquals(5L, uvCounter.count(UV_BLOG_KEY, 1L, begin, end));
+        verify(hyperLogLog).union(mergeKey, UV_BLOG_KEY + "1:" + day(begin),
+                UV_BLOG_KEY + "1:" + day(begin.plusDays(1)), UV_BLOG_KEY + "1:" + day(end));
+        // 已结束的区间不会再变化，长期保留
+        verify(stringRedisTemplate).expire(mergeKey, UV_DAY_TTL, TimeUnit.DAYS);
+    }
+
+    @Test
+    void countRangeIncludingTodayIsCachedBriefly() {
+        LocalDate today = LocalDate.now();
+        String mergeKey = UV_BLOG_KEY + "1:" + day(today.minusDays(1)) + "-" + day(today);
+        uvCounter.count(UV_BLOG_KEY, 1L, today.minusDays(1), today);
+        verify(stringRedisTemplate).expire(mergeKey, UV_MERGE_TTL, TimeUnit.MINUTES);
+    }
+
+    @Test
+    void reuseCachedMerge() {
+        LocalDate end = LocalDate.now().minusDays(1);
+        LocalDate begin = end.minusDays(1);
+        String mergeKey = UV_BLOG_KEY + "1:" + day(begin) + "-" + day(end);
+        when(stringRedisTemplate.hasKey(mergeKey)).thenReturn(true);
+        uvCounter.count(UV_BLOG_KEY, 1L, begin, end);
+        verify(hyperLogLog, never()).union(anyString(), any());
+    }
+}